@@ -9,11 +9,17 @@ package org.opendroneid.android.app;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.os.Bundle;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 import android.util.Log;
 import android.util.Pair;
+import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
@@ -26,6 +32,7 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.Marker;
@@ -33,11 +40,14 @@ import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 import org.opendroneid.android.data.AircraftObject;
+import org.opendroneid.android.data.DeadReckoning;
 import org.opendroneid.android.data.LocationData;
 import org.opendroneid.android.data.SystemData;
 import org.opendroneid.android.data.Util;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 public class AircraftMapView extends SupportMapFragment implements OnMapReadyCallback, GoogleMap.OnMarkerClickListener {
     private static final String TAG = "AircraftMapView";
@@ -46,6 +56,99 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
 
     private final HashMap<AircraftObject, MapObserver> aircraftObservers = new HashMap<>();
 
+    // Aircraft with a location update since the last frame. Their markers and tracks are moved
+    // together in one frame callback instead of once per received message. Between messages the
+    // frames continue while any aircraft is moved on by dead reckoning.
+    private final List<MapObserver> pendingObservers = new ArrayList<>();
+    private boolean frameScheduled;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled = false;
+            for (MapObserver observer : pendingObservers)
+                observer.render();
+            pendingObservers.clear();
+            applyClusters();
+            long now = SystemClock.elapsedRealtimeNanos();
+            boolean animating = false;
+            for (MapObserver observer : aircraftObservers.values())
+                animating |= observer.animate(now);
+            if (animating)
+                scheduleFrame();
+        }
+    };
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    // Aircraft close together at the current zoom level are replaced by one cluster marker,
+    // which shows the count and the nearest member. Only clusters that changed are touched.
+    private final MarkerClusterer<MapObserver> clusterer = new MarkerClusterer<>();
+    private final HashMap<MarkerClusterer.Cluster<MapObserver>, Marker> clusterMarkers = new HashMap<>();
+    private final SparseArray<BitmapDescriptor> clusterIcons = new SparseArray<>();
+    private static final float CLUSTER_ZOOM_STEP = 2;
+
+    private void applyClusters() {
+        if (googleMap == null)
+            return;
+        for (MarkerClusterer.Cluster<MapObserver> cluster : clusterer.drainChanged()) {
+            boolean grouped = cluster.size() > 1;
+            for (MapObserver member : cluster.getMembers())
+                member.setClustered(grouped);
+            Marker clusterMarker = clusterMarkers.get(cluster);
+            if (!grouped) {
+                if (clusterMarker != null) {
+                    clusterMarker.remove();
+                    clusterMarkers.remove(cluster);
+                }
+                continue;
+            }
+            LatLng center = new LatLng(cluster.getLatitude(), cluster.getLongitude());
+            String title = cluster.size() + " aircraft, nearest: " + cluster.getRepresentative().getId();
+            if (clusterMarker == null) {
+                clusterMarker = googleMap.addMarker(new MarkerOptions()
+                        .position(center)
+                        .anchor(0.5f, 0.5f)
+                        .icon(getClusterIcon(cluster.size()))
+                        .title(title));
+                if (clusterMarker == null)
+                    continue;
+                clusterMarker.setTag(cluster);
+                clusterMarkers.put(cluster, clusterMarker);
+            } else {
+                clusterMarker.setPosition(center);
+                if (!title.equals(clusterMarker.getTitle())) {
+                    clusterMarker.setIcon(getClusterIcon(cluster.size()));
+                    clusterMarker.setTitle(title);
+                }
+            }
+        }
+    }
+
+    private BitmapDescriptor getClusterIcon(int count) {
+        BitmapDescriptor icon = clusterIcons.get(count);
+        if (icon != null)
+            return icon;
+        float density = getResources().getDisplayMetrics().density;
+        int size = (int) (36 * density);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.RED);
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+        paint.setColor(Color.WHITE);
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setTextSize(14 * density);
+        canvas.drawText(String.valueOf(count), size / 2f, size / 2f + paint.getTextSize() / 3, paint);
+        icon = BitmapDescriptorFactory.fromBitmap(bitmap);
+        clusterIcons.put(count, icon);
+        return icon;
+    }
+
     private final Util.DiffObserver<AircraftObject> allAircraftObserver = new Util.DiffObserver<AircraftObject>() {
         @Override
         public void onAdded(Collection<AircraftObject> added) {
@@ -128,6 +231,12 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
             model.setActiveAircraft((AircraftObject) tag);
             return true;
         }
+        if (tag instanceof MarkerClusterer.Cluster && googleMap != null) {
+            // Expand the cluster
+            float zoom = Math.min(googleMap.getMaxZoomLevel(), googleMap.getCameraPosition().zoom + CLUSTER_ZOOM_STEP);
+            googleMap.animateCamera(CameraUpdateFactory.newLatLngZoom(marker.getPosition(), zoom));
+            return true;
+        }
         return false;
     }
 
@@ -136,21 +245,35 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
         private Marker markerPilot;
         private Polyline polyline;
         private PolylineOptions polylineOptions;
+        private boolean pending;
+        private boolean clustered;
+        private final TrackPoints<LatLng> trackPoints = new TrackPoints<LatLng>() {
+            @Override
+            LatLng toPoint(double latitude, double longitude) {
+                return new LatLng(latitude, longitude);
+            }
+        };
 
         private final AircraftObject aircraft;
 
         MapObserver(AircraftObject active) {
             aircraft = active;
-            aircraft.location.observe(AircraftMapView.this, this);
-            aircraft.system.observe(AircraftMapView.this, systemObserver);
+            aircraft.getLiveData().location.observe(AircraftMapView.this, this);
+            aircraft.getLiveData().system.observe(AircraftMapView.this, systemObserver);
             polylineOptions = new PolylineOptions()
                     .color(Color.RED)
                     .clickable(true);
         }
 
         void stop() {
-            aircraft.location.removeObserver(this);
-            aircraft.system.removeObserver(systemObserver);
+            aircraft.getLiveData().location.removeObserver(this);
+            aircraft.getLiveData().system.removeObserver(systemObserver);
+            if (pending) {
+                pendingObservers.remove(this);
+                pending = false;
+            }
+            clusterer.remove(this);
+            applyClusters();
             if (marker != null) {
                 marker.remove();
                 marker = null;
@@ -166,6 +289,23 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
             polylineOptions = null;
         }
 
+        String getId() {
+            if (aircraft.getIdentification1() != null)
+                return aircraft.getIdentification1().getUasIdAsString();
+            return "ID missing";
+        }
+
+        /** Hide the markers while the aircraft is shown as part of a cluster. */
+        void setClustered(boolean clustered) {
+            if (this.clustered == clustered)
+                return;
+            this.clustered = clustered;
+            if (marker != null)
+                marker.setVisible(!clustered);
+            if (markerPilot != null)
+                markerPilot.setVisible(!clustered);
+        }
+
         private final Observer<SystemData> systemObserver = new Observer<SystemData>() {
             @Override
             public void onChanged(@Nullable SystemData ignore) {
@@ -187,6 +327,7 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
                                     .alpha(0.5f)
                                     .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE))
                                     .position(latLng)
+                                    .visible(!clustered)
                                     .title(sys.getOperatorLocationType().toString() + ": " + id));
                     if (markerPilot != null)
                         markerPilot.setTag(new Pair<>(aircraft, this));
@@ -198,6 +339,27 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
 
         @Override
         public void onChanged(@Nullable LocationData ignore) {
+            if (pending)
+                return;
+            pending = true;
+            pendingObservers.add(this);
+            scheduleFrame();
+        }
+
+        /**
+         * Move the marker to the dead reckoned position of this frame.
+         * @return true if it will move again in the next frame
+         */
+        boolean animate(long nowNanos) {
+            DeadReckoning motion = aircraft.getMotion();
+            if (marker == null || clustered || !motion.isValid())
+                return false;
+            marker.setPosition(new LatLng(motion.getLatitude(nowNanos), motion.getLongitude(nowNanos)));
+            return motion.isAnimating(nowNanos);
+        }
+
+        void render() {
+            pending = false;
             boolean zoom = false;
             LocationData loc = aircraft.getLocation();
             if (loc == null || googleMap == null || polylineOptions == null)
@@ -216,20 +378,22 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
                         new MarkerOptions()
                                 .alpha(0.5f)
                                 .position(latLng)
+                                .visible(!clustered)
                                 .title("aircraft " + id));
                 if (marker != null)
                     marker.setTag(aircraft);
                 zoom = true;
             }
 
-            polylineOptions.add(latLng);
-            if (polyline != null) {
-                polyline.remove();
-                polyline = null;
+            // Polyline has no append, but setPoints() on the existing line avoids re-adding it
+            if (trackPoints.sync(aircraft.getTrackHistory()) != TrackPoints.UNCHANGED) {
+                if (polyline == null)
+                    polyline = googleMap.addPolyline(polylineOptions);
+                polyline.setPoints(trackPoints.points);
             }
-            polyline = googleMap.addPolyline(polylineOptions);
 
             marker.setPosition(latLng);
+            clusterer.update(this, loc.getLatitude(), loc.getLongitude(), MarkerClusterer.rankOf(loc));
             if (zoom) {
                 googleMap.moveCamera(CameraUpdateFactory.newLatLng(latLng));
             }
@@ -243,6 +407,16 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        frameScheduled = false;
+        for (MapObserver observer : pendingObservers)
+            observer.pending = false;
+        pendingObservers.clear();
+        super.onDestroyView();
+    }
+
     @Override
     public void onActivityCreated(Bundle bundle) {
         super.onActivityCreated(bundle);
@@ -255,6 +429,15 @@ public class AircraftMapView extends SupportMapFragment implements OnMapReadyCal
             return;
 
         this.googleMap = googleMap;
+        googleMap.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
+            @Override
+            public void onCameraIdle() {
+                if (AircraftMapView.this.googleMap != null
+                        && clusterer.setZoom((int) AircraftMapView.this.googleMap.getCameraPosition().zoom))
+                    applyClusters();
+            }
+        });
+        clusterer.setZoom((int) googleMap.getCameraPosition().zoom);
         setMapSettings();
     }
 
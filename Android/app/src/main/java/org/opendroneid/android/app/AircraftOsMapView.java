@@ -14,10 +14,11 @@ package org.opendroneid.android.app;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.graphics.Color;
+import android.net.ConnectivityManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.Pair;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,13 +37,13 @@ import org.opendroneid.android.data.AircraftObject;
 import org.opendroneid.android.data.LocationData;
 import org.opendroneid.android.data.SystemData;
 import org.opendroneid.android.data.Util;
+import org.opendroneid.android.ridguard.RidGuardOfflineMaps;
+import org.opendroneid.android.ridguard.RidGuardRepository;
+import org.opendroneid.android.ridguard.RidGuardSettings;
 import org.osmdroid.api.IMapController;
 import org.osmdroid.config.Configuration;
-import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
-import org.osmdroid.views.overlay.Marker;
-import org.osmdroid.views.overlay.Polyline;
 import org.osmdroid.views.overlay.compass.CompassOverlay;
 import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
 
@@ -50,7 +51,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
 
 public class AircraftOsMapView extends Fragment {
     private final double P_TOKYO_LATITUDE = 35.681167;
@@ -61,9 +61,40 @@ public class AircraftOsMapView extends Fragment {
     private static final String TAG = "AircraftOsvMapView";
     private Context context;
     private MapView osvMap;
+    private AircraftOsmOverlay aircraftOverlay;
     private AircraftViewModel model;
+    private ConnectivityManager.NetworkCallback connectivityCallback;
     private final HashMap<AircraftObject, MapObserver> aircraftObservers = new HashMap<>();
 
+    // Aircraft with a location update since the last frame. Their markers and tracks are moved
+    // together in one frame callback, followed by a single map invalidate. Between messages the
+    // frames continue while any aircraft is moved on by dead reckoning.
+    private final List<MapObserver> pendingObservers = new ArrayList<>();
+    private boolean frameScheduled;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled = false;
+            for (MapObserver observer : pendingObservers) {
+                observer.render();
+            }
+            pendingObservers.clear();
+            if (osvMap != null && aircraftOverlay != null) {
+                if (aircraftOverlay.animate(SystemClock.elapsedRealtimeNanos())) {
+                    scheduleFrame();
+                }
+                osvMap.invalidate();
+            }
+        }
+    };
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
     private final Util.DiffObserver<AircraftObject> allAircraftObserver = new Util.DiffObserver<AircraftObject>() {
         @Override
         public void onAdded(Collection<AircraftObject> added) {
@@ -95,32 +126,18 @@ public class AircraftOsMapView extends Fragment {
         model = new ViewModelProvider(requireActivity()).get(AircraftViewModel.class);
         model.getAllAircraft().observe(getViewLifecycleOwner(), allAircraftObserver);
         model.getActiveAircraft().observe(getViewLifecycleOwner(), new Observer<AircraftObject>() {
-            MapObserver last = null;
-
             @Override
             public void onChanged(@Nullable AircraftObject object) {
                 if (object == null || object.getLocation() == null || osvMap == null) {
                     return;
                 }
-                MapObserver observer = aircraftObservers.get(object);
-                if (observer == null) {
+                if (!aircraftObservers.containsKey(object)) {
                     return;
                 }
                 GeoPoint gp = new GeoPoint(object.getLocation().getLatitude(), object.getLocation().getLongitude());
                 Log.i(TAG, "centering on " + object + " at " + gp);
-                if (last != null && last.marker != null) {
-                    last.marker.setAlpha(0.5f);
-                    if (last.markerPilot != null) {
-                        last.markerPilot.setAlpha(0.5f);
-                    }
-                }
-                if (observer.marker != null) {
-                    observer.marker.setAlpha(1.0f);
-                }
-                if (observer.markerPilot != null) {
-                    observer.markerPilot.setAlpha(1.0f);
-                }
-                last = observer;
+                aircraftOverlay.setActive(object);
+                osvMap.invalidate();
                 // center map position
                 IMapController mapController = osvMap.getController();
                 mapController.animateTo(gp);
@@ -141,6 +158,13 @@ public class AircraftOsMapView extends Fragment {
         Log.d(TAG, "onResume()");
         if (osvMap != null) {
             osvMap.onResume();
+            // Offline, only read archives and the cache instead of queueing downloads that can't finish
+            osvMap.setUseDataConnection(RidGuardOfflineMaps.isOnline(context));
+            connectivityCallback = RidGuardOfflineMaps.watchConnectivity(context, () -> {
+                if (osvMap != null && connectivityCallback != null) {
+                    osvMap.setUseDataConnection(RidGuardOfflineMaps.isOnline(context));
+                }
+            });
         }
     }
 
@@ -148,19 +172,35 @@ public class AircraftOsMapView extends Fragment {
     public void onPause() {
         super.onPause();
         Log.d(TAG, "onPause()");
+        RidGuardOfflineMaps.unwatchConnectivity(context, connectivityCallback);
+        connectivityCallback = null;
         if (osvMap != null) {
             osvMap.onPause();
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        frameScheduled = false;
+        for (MapObserver observer : pendingObservers) {
+            observer.pending = false;
+        }
+        pendingObservers.clear();
+        super.onDestroyView();
+    }
+
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         Log.d(TAG, "onViewCreated()");
         context = getContext();
         Configuration.getInstance().load(context, PreferenceManager.getDefaultSharedPreferences(context));
+        RidGuardSettings settings = RidGuardRepository.getInstance(context).getSettings();
+        RidGuardOfflineMaps.configure(context, settings.getTileCacheMb());
 
         osvMap = view.findViewById(R.id.map);
-        osvMap.setTileSource(TileSourceFactory.MAPNIK);
+        osvMap.setTileSource(RidGuardOfflineMaps.getTileSource(settings.getTileUrl()));
+        osvMap.setUseDataConnection(RidGuardOfflineMaps.isOnline(context));
         osvMap.setMultiTouchControls(true);
 
         MyLocationNewOverlay myLocationoverlay = new MyLocationNewOverlay(osvMap);
@@ -173,6 +213,19 @@ public class AircraftOsMapView extends Fragment {
         compassOverlay.enableCompass();
         osvMap.getOverlays().add(compassOverlay);
 
+        aircraftOverlay = new AircraftOsmOverlay(context, osvMap);
+        aircraftOverlay.setOnTapListener(new AircraftOsmOverlay.OnTapListener() {
+            @Override
+            public boolean onTap(AircraftObject aircraft, boolean pilot) {
+                Toast.makeText(context, pilot ? pilotTitle(aircraft) : aircraftTitle(aircraft), Toast.LENGTH_SHORT).show();
+                if (!pilot) {
+                    model.setActiveAircraft(aircraft);
+                }
+                return true;
+            }
+        });
+        osvMap.getOverlays().add(aircraftOverlay);
+
         IMapController mapController = osvMap.getController();
         mapController.setZoom(3.0);
         GeoPoint centerPoint = new GeoPoint(P_DEFAULT_LATITUDE, P_DEFAULT_LONGITUDE);
@@ -191,145 +244,67 @@ public class AircraftOsMapView extends Fragment {
         }
     }
 
-    class MapObserver implements Observer<LocationData> {
-        private Marker markerPilot;
-        private Object makerPilotTag;
-        private Marker marker;
-        private Object makerTag;
-        private final List<GeoPoint> polylineData;
-        private Polyline polyline;
+    private static String aircraftTitle(AircraftObject aircraft) {
+        String id = "ID missing";
+        if (aircraft.getIdentification1() != null) {
+            id = aircraft.getIdentification1().getUasIdAsString();
+        }
+        return "aircraft\n" + id;
+    }
+
+    private static String pilotTitle(AircraftObject aircraft) {
+        String id = "ID missing";
+        if (aircraft.getIdentification1() != null) {
+            id = aircraft.getIdentification1().getUasIdAsString();
+        }
+        SystemData sys = aircraft.getSystem();
+        return (sys != null ? sys.getOperatorLocationType().toString() : "") + "\n" + id;
+    }
+
+    class MapObserver implements Observer<Object> {
+        private boolean pending;
         private final AircraftObject aircraft;
 
         MapObserver(AircraftObject active) {
             aircraft = active;
-            aircraft.location.observe(AircraftOsMapView.this, this);
-            aircraft.system.observe(AircraftOsMapView.this, systemObserver);
-            polylineData = new ArrayList<>();
+            aircraft.getLiveData().location.observe(AircraftOsMapView.this, this);
+            aircraft.getLiveData().system.observe(AircraftOsMapView.this, this);
         }
 
         void stop() {
-            aircraft.location.removeObserver(this);
-            aircraft.system.removeObserver(systemObserver);
-            if (marker != null) {
-                osvMap.getOverlays().remove(marker);
-                marker = null;
+            aircraft.getLiveData().location.removeObserver(this);
+            aircraft.getLiveData().system.removeObserver(this);
+            if (pending) {
+                pendingObservers.remove(this);
+                pending = false;
             }
-            if (markerPilot != null) {
-                osvMap.getOverlays().remove(markerPilot);
-                markerPilot = null;
-            }
-            if (polylineData != null) {
-                polylineData.clear();
-            }
-            if (polyline != null) {
-                osvMap.getOverlays().remove(polyline);
-                polyline = null;
+            if (aircraftOverlay != null) {
+                aircraftOverlay.remove(aircraft);
+                osvMap.invalidate();
             }
         }
 
-        private final Observer<SystemData> systemObserver = new Observer<SystemData>() {
-            @Override
-            public void onChanged(@Nullable SystemData ignore) {
-                SystemData sys = aircraft.getSystem();
-                if (sys == null || osvMap == null) {
-                    return;
-                }
-                if (sys.getOperatorLatitude() == 0.0 && sys.getOperatorLongitude() == 0.0) {
-                    return;
-                }
-                GeoPoint geoPoint = new GeoPoint(sys.getOperatorLatitude(), sys.getOperatorLongitude());
-                if (markerPilot == null) {
-                    String id = "ID missing";
-                    if (aircraft.getIdentification1() != null) {
-                        id = aircraft.getIdentification1().getUasIdAsString();
-                    }
-                    markerPilot = new Marker(osvMap);
-                    markerPilot.setIcon(context.getDrawable(R.drawable.ic_pilot));
-                    markerPilot.setPosition(geoPoint);
-                    markerPilot.setTitle(sys.getOperatorLocationType().toString() + "\n" + id);
-                    if (markerPilot != null) {
-                        makerPilotTag = new Pair<>(aircraft, this);
-                    }
-                    Objects.requireNonNull(markerPilot).setOnMarkerClickListener(new Marker.OnMarkerClickListener() {
-                        @Override
-                        public boolean onMarkerClick(Marker marker, MapView mapView) {
-                            if (marker != null) {
-                                Toast.makeText(context, marker.getTitle(), Toast.LENGTH_SHORT).show();
-                            }
-                            if (makerPilotTag instanceof AircraftObject) {
-                                model.setActiveAircraft((AircraftObject) makerPilotTag);
-                                return true;
-                            }
-                            return false;
-                        }
-                    });
-                    osvMap.getOverlays().add(markerPilot);
-                }
-                if (markerPilot != null) {
-                    markerPilot.setPosition(geoPoint);
-                }
-            }
-        };
-
         @Override
-        public void onChanged(@Nullable LocationData ignore) {
-            boolean zoom = false;
-            LocationData loc = aircraft.getLocation();
-            if (loc == null || osvMap == null || polylineData == null) {
-                return;
-            }
-            if (loc.getLatitude() == 0.0 && loc.getLongitude() == 0.0) {
+        public void onChanged(@Nullable Object ignore) {
+            if (pending) {
                 return;
             }
-            GeoPoint geoPoint = new GeoPoint(loc.getLatitude(), loc.getLongitude());
-            // make marker
-            if (marker == null) {
-                String id = "ID missing";
-                if (aircraft.getIdentification1() != null) {
-                    id = aircraft.getIdentification1().getUasIdAsString();
-                }
-                marker = new Marker(osvMap);
-                marker.setPosition(geoPoint);
-                marker.setTitle("aircraft\n" + id);
-                if (marker != null) {
-                    makerTag = aircraft;
-                }
-                Objects.requireNonNull(marker).setOnMarkerClickListener(new Marker.OnMarkerClickListener() {
-                    @Override
-                    public boolean onMarkerClick(Marker marker, MapView mapView) {
-                        if (marker != null) {
-                            Toast.makeText(context, marker.getTitle(), Toast.LENGTH_SHORT).show();
-                        }
-                        if (makerTag instanceof AircraftObject) {
-                            model.setActiveAircraft((AircraftObject) makerTag);
-                            return true;
-                        }
-                        return false;
-                    }
-                });
-                osvMap.getOverlays().add(marker);
-                zoom = true;
-            }
+            pending = true;
+            pendingObservers.add(this);
+            scheduleFrame();
+        }
 
-            // make marker line
-            if (polyline != null) {
-                osvMap.getOverlays().remove(polyline);
-                polyline = null;
+        void render() {
+            pending = false;
+            if (osvMap == null || aircraftOverlay == null) {
+                return;
             }
-            polyline = new Polyline();
-            polylineData.add(geoPoint);
-            polyline.setPoints(polylineData);
-            polyline.getOutlinePaint().setColor(Color.RED);
-            osvMap.getOverlays().add(polyline);
-            osvMap.invalidate();
-
-            // move map position
-            marker.setPosition(geoPoint);
-            if (zoom) {
-                // moveCamera
+            if (aircraftOverlay.update(aircraft)) {
+                // zoom to the first position of an aircraft
+                LocationData loc = aircraft.getLocation();
                 IMapController mapController = osvMap.getController();
                 mapController.setZoom(17.0);
-                mapController.animateTo(geoPoint);
+                mapController.animateTo(new GeoPoint(loc.getLatitude(), loc.getLongitude()));
             }
         }
     }
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.app;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.drawable.Drawable;
+import android.view.MotionEvent;
+
+import androidx.core.content.ContextCompat;
+
+import org.opendroneid.android.R;
+import org.opendroneid.android.data.AircraftObject;
+import org.opendroneid.android.data.DeadReckoning;
+import org.opendroneid.android.data.LocationData;
+import org.opendroneid.android.data.SystemData;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.PointL;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws all aircraft, their pilots and their tracks in one overlay and one draw pass, instead of
+ * a Marker and a Polyline overlay per aircraft.
+ *
+ * Positions are cached as osmdroid projected coordinates, which do not depend on zoom or scroll,
+ * so a frame only has to shift and scale them to the screen. Tracks are kept in sync
+ * incrementally from each aircraft's track history and drawn with a single drawLines() call.
+ * Every draw also files the drawn icons into a coarse screen grid, so a tap only looks at the
+ * icons in the cells around it.
+ *
+ * Aircraft close together at the current zoom level are drawn as one cluster: the icon of the
+ * nearest member with a count badge. Tapping a cluster zooms in on it.
+ *
+ * Between messages the icons are moved on every frame by dead reckoning, see {@link #animate}.
+ */
+class AircraftOsmOverlay extends Overlay {
+    private static final int CELL_SIZE_PX = 96;
+    private static final int INACTIVE_ALPHA = 128;
+    private static final int TOUCH_SLOP_PX = 16;
+    private static final double CLUSTER_ZOOM_STEP = 2;
+
+    interface OnTapListener {
+        /** @return true if the tap was handled */
+        boolean onTap(AircraftObject aircraft, boolean pilot);
+    }
+
+    private static final class Entry {
+        final AircraftObject aircraft;
+        boolean hasPosition;
+        final PointL position = new PointL();
+        boolean hasPilot;
+        final PointL pilot = new PointL();
+        TrackPoints<PointL> track;
+
+        Entry(AircraftObject aircraft) {
+            this.aircraft = aircraft;
+        }
+    }
+
+    private final MapView mapView;
+    private final Drawable aircraftIcon;
+    private final Drawable pilotIcon;
+    private final Paint trackPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint badgePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint badgeTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Map<AircraftObject, Entry> entries = new LinkedHashMap<>();
+    private final MarkerClusterer<Entry> clusterer = new MarkerClusterer<>();
+    private final PointL clusterPosition = new PointL();
+    private AircraftObject active;
+    private OnTapListener tapListener;
+
+    // Per draw scratch space, reused between frames
+    private final PointL screen = new PointL();
+    private final PointL previous = new PointL();
+    private float[] lines = new float[256];
+
+    // Icons drawn in the last frame and the grid over them; a linked list per cell
+    private int hitCount;
+    private float[] hitX = new float[64];
+    private float[] hitY = new float[64];
+    private Entry[] hitEntry = new Entry[64];
+    private MarkerClusterer.Cluster[] hitCluster = new MarkerClusterer.Cluster[64];
+    private boolean[] hitPilot = new boolean[64];
+    private int[] hitNext = new int[64];
+    private int[] cellHead = new int[0];
+    private int gridColumns;
+    private int gridRows;
+
+    AircraftOsmOverlay(Context context, MapView mapView) {
+        this.mapView = mapView;
+        aircraftIcon = ContextCompat.getDrawable(context, R.drawable.ic_airplan).mutate();
+        pilotIcon = ContextCompat.getDrawable(context, R.drawable.ic_pilot).mutate();
+        trackPaint.setColor(Color.RED);
+        trackPaint.setStyle(Paint.Style.STROKE);
+        float density = context.getResources().getDisplayMetrics().density;
+        trackPaint.setStrokeWidth(density * 3);
+        badgePaint.setColor(Color.RED);
+        badgeTextPaint.setColor(Color.WHITE);
+        badgeTextPaint.setTextAlign(Paint.Align.CENTER);
+        badgeTextPaint.setTextSize(density * 12);
+    }
+
+    void setOnTapListener(OnTapListener listener) {
+        tapListener = listener;
+    }
+
+    /** Draw {@code aircraft} and its pilot fully opaque and on top of the others. */
+    void setActive(AircraftObject aircraft) {
+        active = aircraft;
+    }
+
+    /**
+     * Refresh the cached positions of {@code aircraft} from its latest messages. The caller
+     * invalidates the map once after a batch of updates.
+     *
+     * @return true if this was the first valid position of the aircraft
+     */
+    boolean update(AircraftObject aircraft) {
+        Entry entry = entries.get(aircraft);
+        if (entry == null) {
+            entry = new Entry(aircraft);
+            entry.track = new TrackPoints<PointL>() {
+                @Override
+                PointL toPoint(double latitude, double longitude) {
+                    return mapView.getProjection().toProjectedPixels(latitude, longitude, null);
+                }
+            };
+            entries.put(aircraft, entry);
+        }
+        Projection projection = mapView.getProjection();
+        boolean first = false;
+        LocationData location = aircraft.getLocation();
+        if (location != null && (location.getLatitude() != 0 || location.getLongitude() != 0)) {
+            first = !entry.hasPosition;
+            projection.toProjectedPixels(location.getLatitude(), location.getLongitude(), entry.position);
+            entry.hasPosition = true;
+            clusterer.update(entry, location.getLatitude(), location.getLongitude(), MarkerClusterer.rankOf(location));
+        }
+        SystemData system = aircraft.getSystem();
+        if (system != null && (system.getOperatorLatitude() != 0 || system.getOperatorLongitude() != 0)) {
+            projection.toProjectedPixels(system.getOperatorLatitude(), system.getOperatorLongitude(), entry.pilot);
+            entry.hasPilot = true;
+        }
+        entry.track.sync(aircraft.getTrackHistory());
+        return first;
+    }
+
+    /**
+     * Move the aircraft icons to their dead reckoned positions at {@code nowNanos}; the caller
+     * invalidates the map.
+     *
+     * @return true if any of them will move again in the next frame
+     */
+    boolean animate(long nowNanos) {
+        Projection projection = mapView.getProjection();
+        boolean animating = false;
+        for (Entry entry : entries.values()) {
+            DeadReckoning motion = entry.aircraft.getMotion();
+            if (!entry.hasPosition || !motion.isValid())
+                continue;
+            projection.toProjectedPixels(motion.getLatitude(nowNanos), motion.getLongitude(nowNanos), entry.position);
+            animating |= motion.isAnimating(nowNanos);
+        }
+        return animating;
+    }
+
+    void remove(AircraftObject aircraft) {
+        Entry entry = entries.remove(aircraft);
+        if (entry != null)
+            clusterer.remove(entry);
+    }
+
+    @Override
+    public void draw(Canvas canvas, Projection projection) {
+        double powerDifference = projection.getProjectedPowerDifference();
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        drawTracks(canvas, projection, powerDifference, width, height);
+
+        resetGrid(width, height);
+        clusterer.setZoom((int) projection.getZoomLevel());
+        clusterer.drainChanged();
+        Entry activeEntry = entries.get(active);
+        for (MarkerClusterer.Cluster<Entry> cluster : clusterer.getClusters()) {
+            if (cluster.size() > 1) {
+                drawCluster(canvas, projection, powerDifference, cluster, width, height);
+                continue;
+            }
+            Entry entry = cluster.getRepresentative();
+            if (entry != activeEntry)
+                drawEntry(canvas, projection, powerDifference, entry, INACTIVE_ALPHA, width, height);
+        }
+        // The active aircraft is always drawn on its own, even when it is part of a cluster
+        if (activeEntry != null)
+            drawEntry(canvas, projection, powerDifference, activeEntry, 255, width, height);
+    }
+
+    private void drawTracks(Canvas canvas, Projection projection, double powerDifference, int width, int height) {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            int size = entry.track.points.size();
+            for (int i = 0; i < size; i++) {
+                projection.getLongPixelsFromProjected(entry.track.points.get(i), powerDifference, true, screen);
+                // Skip segments that are entirely on one side of the screen
+                if (i > 0 && !outsideSameSide(previous, screen, width, height)) {
+                    if (count + 4 > lines.length)
+                        lines = Arrays.copyOf(lines, lines.length * 2);
+                    lines[count++] = previous.x;
+                    lines[count++] = previous.y;
+                    lines[count++] = screen.x;
+                    lines[count++] = screen.y;
+                }
+                previous.set(screen.x, screen.y);
+            }
+        }
+        if (count > 0)
+            canvas.drawLines(lines, 0, count, trackPaint);
+    }
+
+    private static boolean outsideSameSide(PointL a, PointL b, int width, int height) {
+        return (a.x < 0 && b.x < 0) || (a.y < 0 && b.y < 0)
+                || (a.x > width && b.x > width) || (a.y > height && b.y > height);
+    }
+
+    private void drawEntry(Canvas canvas, Projection projection, double powerDifference,
+                           Entry entry, int alpha, int width, int height) {
+        if (entry.hasPilot) {
+            projection.getLongPixelsFromProjected(entry.pilot, powerDifference, true, screen);
+            drawIcon(canvas, pilotIcon, entry, null, true, alpha, width, height);
+        }
+        if (entry.hasPosition) {
+            projection.getLongPixelsFromProjected(entry.position, powerDifference, true, screen);
+            drawIcon(canvas, aircraftIcon, entry, null, false, alpha, width, height);
+        }
+    }
+
+    /** Draws the nearest member's icon at the centroid with the member count as a badge. */
+    private void drawCluster(Canvas canvas, Projection projection, double powerDifference,
+                             MarkerClusterer.Cluster<Entry> cluster, int width, int height) {
+        projection.toProjectedPixels(cluster.getLatitude(), cluster.getLongitude(), clusterPosition);
+        projection.getLongPixelsFromProjected(clusterPosition, powerDifference, true, screen);
+        if (!drawIcon(canvas, aircraftIcon, null, cluster, false, INACTIVE_ALPHA, width, height))
+            return;
+        float radius = badgeTextPaint.getTextSize();
+        float x = screen.x + aircraftIcon.getIntrinsicWidth() / 2f;
+        float y = screen.y - aircraftIcon.getIntrinsicHeight();
+        canvas.drawCircle(x, y, radius, badgePaint);
+        canvas.drawText(String.valueOf(cluster.size()), x, y + radius / 3, badgeTextPaint);
+    }
+
+    /**
+     * Draws the icon centered horizontally above {@link #screen} and adds it to the hit grid.
+     * @return false if it is off screen
+     */
+    private boolean drawIcon(Canvas canvas, Drawable icon, Entry entry, MarkerClusterer.Cluster<Entry> cluster,
+                             boolean pilot, int alpha, int width, int height) {
+        int iconWidth = icon.getIntrinsicWidth();
+        int iconHeight = icon.getIntrinsicHeight();
+        int left = (int) screen.x - iconWidth / 2;
+        int top = (int) screen.y - iconHeight;
+        if (left > width || top > height || left + iconWidth < 0 || top + iconHeight < 0)
+            return false;
+        icon.setBounds(left, top, left + iconWidth, top + iconHeight);
+        icon.setAlpha(alpha);
+        icon.draw(canvas);
+        addHit(left + iconWidth / 2f, top + iconHeight / 2f, entry, cluster, pilot);
+        return true;
+    }
+
+    private void resetGrid(int width, int height) {
+        gridColumns = width / CELL_SIZE_PX + 1;
+        gridRows = height / CELL_SIZE_PX + 1;
+        if (cellHead.length < gridColumns * gridRows)
+            cellHead = new int[gridColumns * gridRows];
+        Arrays.fill(cellHead, 0, gridColumns * gridRows, -1);
+        hitCount = 0;
+    }
+
+    private void addHit(float x, float y, Entry entry, MarkerClusterer.Cluster<Entry> cluster, boolean pilot) {
+        if (hitCount == hitX.length) {
+            int size = hitCount * 2;
+            hitX = Arrays.copyOf(hitX, size);
+            hitY = Arrays.copyOf(hitY, size);
+            hitEntry = Arrays.copyOf(hitEntry, size);
+            hitCluster = Arrays.copyOf(hitCluster, size);
+            hitPilot = Arrays.copyOf(hitPilot, size);
+            hitNext = Arrays.copyOf(hitNext, size);
+        }
+        int cell = cellOf(x, y);
+        hitX[hitCount] = x;
+        hitY[hitCount] = y;
+        hitEntry[hitCount] = entry;
+        hitCluster[hitCount] = cluster;
+        hitPilot[hitCount] = pilot;
+        hitNext[hitCount] = cellHead[cell];
+        cellHead[cell] = hitCount++;
+    }
+
+    private int cellOf(float x, float y) {
+        int column = Math.max(0, Math.min(gridColumns - 1, (int) (x / CELL_SIZE_PX)));
+        int row = Math.max(0, Math.min(gridRows - 1, (int) (y / CELL_SIZE_PX)));
+        return row * gridColumns + column;
+    }
+
+    @Override
+    public boolean onSingleTapConfirmed(MotionEvent event, MapView mapView) {
+        if (tapListener == null || hitCount == 0)
+            return false;
+        Point point = mapView.getProjection().unrotateAndScalePoint((int) event.getX(), (int) event.getY(), null);
+        float radius = Math.max(aircraftIcon.getIntrinsicWidth(), aircraftIcon.getIntrinsicHeight()) / 2f + TOUCH_SLOP_PX;
+        int column = (int) (point.x / CELL_SIZE_PX);
+        int row = (int) (point.y / CELL_SIZE_PX);
+        int reach = (int) Math.ceil(radius / CELL_SIZE_PX);
+        int best = -1;
+        float bestDistance = radius * radius;
+        for (int r = Math.max(0, row - reach); r <= Math.min(gridRows - 1, row + reach); r++) {
+            for (int c = Math.max(0, column - reach); c <= Math.min(gridColumns - 1, column + reach); c++) {
+                for (int i = cellHead[r * gridColumns + c]; i >= 0; i = hitNext[i]) {
+                    float dx = hitX[i] - point.x;
+                    float dy = hitY[i] - point.y;
+                    float distance = dx * dx + dy * dy;
+                    // Icons drawn later are on top, prefer them on a tie
+                    if (distance < bestDistance || (distance == bestDistance && i > best)) {
+                        bestDistance = distance;
+                        best = i;
+                    }
+                }
+            }
+        }
+        if (best < 0)
+            return false;
+        MarkerClusterer.Cluster<?> cluster = hitCluster[best];
+        if (cluster == null)
+            return tapListener.onTap(hitEntry[best].aircraft, hitPilot[best]);
+        if (mapView.getZoomLevelDouble() < mapView.getMaxZoomLevel()) {
+            // Expand the cluster
+            mapView.getController().animateTo(new GeoPoint(cluster.getLatitude(), cluster.getLongitude()),
+                    Math.min(mapView.getMaxZoomLevel(), mapView.getZoomLevelDouble() + CLUSTER_ZOOM_STEP), null);
+            return true;
+        }
+        return tapListener.onTap(((Entry) cluster.getRepresentative()).aircraft, false);
+    }
+
+    @Override
+    public void onDetach(MapView mapView) {
+        entries.clear();
+        Arrays.fill(hitEntry, null);
+        Arrays.fill(hitCluster, null);
+        hitCount = 0;
+    }
+}
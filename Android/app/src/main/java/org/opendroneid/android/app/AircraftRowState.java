@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.app;
+
+import android.content.res.Resources;
+import android.location.Location;
+
+import org.opendroneid.android.Constants;
+import org.opendroneid.android.data.AircraftObject;
+import org.opendroneid.android.data.AircraftSnapshot;
+import org.opendroneid.android.data.Identification;
+import org.opendroneid.android.data.LocationData;
+
+import java.util.Locale;
+
+/**
+ * Everything one row of the aircraft list shows, formatted once per change of the aircraft.
+ *
+ * Building the texts takes a handful of String.format calls, so it is done on a background
+ * thread from an {@link Input} captured on the main thread; binding a row then only assigns the
+ * ready strings. Immutable.
+ */
+final class AircraftRowState {
+    final long macAddress;
+    final String idText;
+    final boolean longId;
+    final String rssiText;
+    final String locationText;
+    /** The metrics up to the last seen time, which the list appends while it ticks. */
+    final String metricsPrefix;
+    final long lastSeen;
+
+    /**
+     * The values a row is built from: the immutable aircraft snapshot, plus the identification
+     * the list currently shows and the receiver altitude, which belong to the main thread. The
+     * snapshot is null for an aircraft not published yet; the row then shows dashes.
+     */
+    static final class Input {
+        final long macAddress;
+        final AircraftSnapshot aircraft;
+        final Identification identification;
+        final boolean hasReceiverAltitude;
+        final double receiverAltitude;
+
+        Input(AircraftObject aircraft, Location receiver) {
+            macAddress = aircraft.getMacAddress();
+            this.aircraft = aircraft.getSnapshot();
+            identification = aircraft.getShownIdentification();
+            hasReceiverAltitude = receiver != null;
+            receiverAltitude = receiver != null ? receiver.getAltitude() : 0;
+        }
+    }
+
+    /** Formats the texts; called off the main thread. */
+    AircraftRowState(Input input, Resources res) {
+        AircraftSnapshot aircraft = input.aircraft;
+        macAddress = input.macAddress;
+        Identification id = input.identification;
+        idText = id != null ? id.getUasIdAsString() : null;
+        longId = idText != null && idText.length() > Constants.MAX_ID_BYTE_SIZE;
+        rssiText = aircraft != null ? String.format(Locale.US, "%s dBm", aircraft.getRssi()) : "–";
+        lastSeen = aircraft != null ? aircraft.getLastSeen() : 0;
+
+        LocationData locationData = aircraft != null ? aircraft.getLocation() : null;
+        if (locationData != null) {
+            locationText = String.format(Locale.US, "%s over %s, %s, %s away",
+                    locationData.getHeightLessPreciseAsString(res),
+                    locationData.getHeightType().toString(),
+                    locationData.getSpeedHorizontalLessPreciseAsString(res),
+                    locationData.getDistanceAsString());
+        } else {
+            locationText = null;
+        }
+
+        float distance = locationData != null ? locationData.getDistance() : 0f;
+        String distanceText = distance > 0 ? String.format(Locale.US, "%.0f m", distance) : "–";
+        Double altitudeDiff = null;
+        if (locationData != null) {
+            double droneAlt = locationData.getAltitudeGeodetic();
+            if (droneAlt == -1000) {
+                droneAlt = locationData.getAltitudePressure();
+            }
+            if (droneAlt != -1000 && input.hasReceiverAltitude) {
+                altitudeDiff = droneAlt - input.receiverAltitude;
+            }
+        }
+        String altitudeText = altitudeDiff != null ? String.format(Locale.US, "%.0f m", altitudeDiff) : "–";
+        String speedText = locationData != null && locationData.getSpeedHorizontal() != 255
+                ? String.format(Locale.US, "%.1f m/s", locationData.getSpeedHorizontal()) : "–";
+        String headingText = locationData != null && locationData.getDirection() != 361
+                ? String.format(Locale.US, "%.0f°", locationData.getDirection()) : "–";
+        metricsPrefix = String.format(Locale.US,
+                "%s · Δalt %s · v %s · hdg %s · ",
+                distanceText, altitudeText, speedText, headingText);
+    }
+
+    /** The seconds since the last message, or a dash if none was received. */
+    static String formatLastSeen(long lastSeen, long now) {
+        return lastSeen > 0
+                ? String.format(Locale.US, "%ds", Math.max(0, (now - lastSeen) / 1000))
+                : "–";
+    }
+}
@@ -12,13 +12,37 @@ import androidx.lifecycle.ViewModel;
 
 import org.opendroneid.android.data.AircraftObject;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class AircraftViewModel extends ViewModel {
     private final MutableLiveData<Set<AircraftObject>> aircraft = new MutableLiveData<>();
     private final MutableLiveData<AircraftObject> selected = new MutableLiveData<>();
+    private final MutableLiveData<AircraftChanges> changes = new MutableLiveData<>();
+    // The aircraft the change feed has reported as added and not yet as removed
+    private final Map<Long, AircraftObject> published = new HashMap<>();
+    private AircraftChanges pending = new AircraftChanges();
+
+    /**
+     * What happened to the aircraft list since the consumer last called {@link #takeChanges()}:
+     * aircraft added, removed and, per remaining aircraft, the AircraftObject.CHANGED_* flags.
+     */
+    static final class AircraftChanges {
+        final List<AircraftObject> added = new ArrayList<>();
+        final List<AircraftObject> removed = new ArrayList<>();
+        final Map<AircraftObject, Integer> changed = new LinkedHashMap<>();
+
+        boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+    }
 
     public AircraftViewModel() {
         Set<AircraftObject> list = new HashSet<>();
@@ -33,12 +57,56 @@ public class AircraftViewModel extends ViewModel {
         return selected;
     }
 
+    /**
+     * Compare the aircraft with the ones seen on the previous call and publish the difference on
+     * the change feed. The full set is only posted when aircraft came or went. Main thread only.
+     */
     public void setAllAircraft(ConcurrentHashMap<Long, AircraftObject> objects) {
-        aircraft.postValue(new HashSet<>(objects.values()));
+        boolean membershipChanged = false;
+        for (Iterator<Map.Entry<Long, AircraftObject>> it = published.entrySet().iterator(); it.hasNext(); ) {
+            AircraftObject object = it.next().getValue();
+            if (objects.get(object.getMacAddress()) != object) {
+                it.remove();
+                if (!pending.added.remove(object))
+                    pending.removed.add(object);
+                pending.changed.remove(object);
+                membershipChanged = true;
+            }
+        }
+        for (AircraftObject object : objects.values()) {
+            int flags = object.takeChanges();
+            if (published.put(object.getMacAddress(), object) == null) {
+                pending.added.add(object);
+                membershipChanged = true;
+            } else if (flags != 0 && !pending.added.contains(object)) {
+                Integer previous = pending.changed.get(object);
+                pending.changed.put(object, previous != null ? previous | flags : flags);
+            }
+        }
+        if (membershipChanged)
+            aircraft.postValue(new HashSet<>(objects.values()));
+        if (!pending.isEmpty())
+            changes.setValue(pending);
     }
 
     LiveData<Set<AircraftObject>> getAllAircraft() {
         return aircraft;
     }
 
+    /** Signals that changes are waiting; the observer collects them with {@link #takeChanges()}. */
+    LiveData<AircraftChanges> getChanges() {
+        return changes;
+    }
+
+    /** The changes accumulated since the previous call. */
+    AircraftChanges takeChanges() {
+        AircraftChanges taken = pending;
+        pending = new AircraftChanges();
+        return taken;
+    }
+
+    /** The aircraft currently known to the change feed, for a consumer that starts from scratch. */
+    List<AircraftObject> getPublishedAircraft() {
+        return new ArrayList<>(published.values());
+    }
 }
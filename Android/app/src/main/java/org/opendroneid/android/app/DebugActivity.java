@@ -28,8 +28,8 @@ import androidx.fragment.app.FragmentTransaction;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.os.Environment;
-import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.Menu;
@@ -51,6 +51,8 @@ import org.opendroneid.android.BuildConfig;
 import org.opendroneid.android.Constants;
 import org.opendroneid.android.PermissionUtils;
 import org.opendroneid.android.R;
+import org.opendroneid.android.log.LogIndex;
+import org.opendroneid.android.log.LogReader;
 import org.opendroneid.android.log.LogWriter;
 import org.opendroneid.android.bluetooth.BluetoothScanner;
 import org.opendroneid.android.bluetooth.WiFiNaNScanner;
@@ -88,8 +90,7 @@ public class DebugActivity extends AppCompatActivity {
     private File loggerFile;
     private LogWriter logger;
 
-    private Handler handler;
-    private Runnable runnableCode;
+    private UiRefreshScheduler refreshScheduler;
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -147,7 +148,7 @@ public class DebugActivity extends AppCompatActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
         if (id == R.id.clear) {
-            dataManager.getAircraft().clear();
+            dataManager.clear();
             mModel.setAllAircraft(dataManager.getAircraft());
             LogWriter.bumpSession();
             return true;
@@ -205,7 +206,7 @@ public class DebugActivity extends AppCompatActivity {
         }
         String pattern = "yyyy-MM-dd_HH-mm-ss.SSS";
         SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern, Locale.US);
-        return new File(file, "log_" + Build.MODEL + "_" + name + "_" + simpleDateFormat.format(new Date()) + ".csv");
+        return new File(file, LogReader.LOG_PREFIX + Build.MODEL + "_" + name + "_" + simpleDateFormat.format(new Date()) + ".csv");
     }
 
     private void createNewLogfile() {
@@ -226,6 +227,40 @@ public class DebugActivity extends AppCompatActivity {
             e.printStackTrace();
         }
         btScanner.setLogger(logger);
+
+        // Index earlier logs that have no index yet, or were not closed properly
+        File currentLog = loggerFile;
+        new Thread(() -> LogReader.indexLogs(currentLog.getParentFile(), currentLog), "LogIndexer").start();
+    }
+
+    /**
+     * Copy the frames of one aircraft, from its MAC address or with its UAS ID, received since
+     * {@code firstSeenMs} from the current log to a file next to it.
+     */
+    void extractFromLog(String macAddress, String uasId, long firstSeenMs) {
+        if (!getLogEnabled() || loggerFile == null) {
+            showToast(getString(R.string.Logging_not_activated));
+            return;
+        }
+        File logFile = loggerFile;
+        // The log holds receive times on the elapsed realtime clock
+        long sinceNanos = SystemClock.elapsedRealtimeNanos()
+                - (System.currentTimeMillis() - firstSeenMs) * 1_000_000L;
+        String key = (uasId != null ? uasId : macAddress).replaceAll("[^A-Za-z0-9]", "_");
+        File out = new File(logFile.getParentFile(), "extract_" + key + "_" + logFile.getName());
+        new Thread(() -> {
+            String message;
+            try {
+                LogIndex index = LogReader.openIndex(logFile);
+                int frames = LogReader.extract(logFile, index, macAddress, uasId, sinceNanos, out);
+                message = getString(R.string.Log_extracted, frames, out.getAbsolutePath());
+            } catch (IOException e) {
+                Log.e(TAG, "extractFromLog: " + logFile, e);
+                message = getString(R.string.Log_extract_failed);
+            }
+            String result = message;
+            runOnUiThread(() -> showToast(result));
+        }, "LogExtract").start();
     }
 
     @Override
@@ -394,16 +429,10 @@ public class DebugActivity extends AppCompatActivity {
     protected void onResume() {
         Log.d(TAG, "onResume");
 
-        // Wake the main Activity thread regularly, to update time counters and other UI elements
-        handler = new Handler();
-        runnableCode = () -> {
-            for (AircraftObject aircraft : dataManager.aircraft.values()) {
-                aircraft.updateShadowBasicId();
-                aircraft.connection.setValue(aircraft.connection.getValue());
-            }
-            handler.postDelayed(runnableCode, 1000);
-        };
-        handler.post(runnableCode);
+        // Update the UI elements whenever new data arrived; the list ticks its time counters itself
+        if (refreshScheduler == null)
+            refreshScheduler = new UiRefreshScheduler(dataManager, () -> mModel.setAllAircraft(dataManager.getAircraft()));
+        refreshScheduler.start();
 
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED &&
                 ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
@@ -433,7 +462,7 @@ public class DebugActivity extends AppCompatActivity {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && wiFiBeaconScanner != null)
             wiFiBeaconScanner.stopScan();
 
-        handler.removeCallbacks(runnableCode);
+        refreshScheduler.stop();
         if (mFusedLocationClient != null)
             mFusedLocationClient.removeLocationUpdates(locationCallback);
         super.onPause();
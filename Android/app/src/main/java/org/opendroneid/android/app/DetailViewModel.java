@@ -28,26 +28,26 @@ public class DetailViewModel extends ViewModel {
     }
 
     final LiveData<Identification> identification1 = Transformations.switchMap(selected,
-            input -> input.identification1);
+            input -> input.getLiveData().identification1);
 
     final LiveData<Identification> identification2 = Transformations.switchMap(selected,
-            input -> input.identification2);
+            input -> input.getLiveData().identification2);
 
     final LiveData<Connection> connection = Transformations.switchMap(selected,
-            input -> input.connection);
+            input -> input.getLiveData().connection);
 
     public final LiveData<LocationData> location = Transformations.switchMap(selected,
-            input -> input.location);
+            input -> input.getLiveData().location);
 
     final LiveData<AuthenticationData> authentication = Transformations.switchMap(selected,
-            input -> input.authentication);
+            input -> input.getLiveData().authentication);
 
     final LiveData<SelfIdData> selfid = Transformations.switchMap(selected,
-            input -> input.selfid);
+            input -> input.getLiveData().selfid);
 
     public final LiveData<SystemData> system = Transformations.switchMap(selected,
-            input -> input.system);
+            input -> input.getLiveData().system);
 
     final LiveData<OperatorIdData> operatorid = Transformations.switchMap(selected,
-            input -> input.operatorid);
+            input -> input.getLiveData().operatorid);
 }
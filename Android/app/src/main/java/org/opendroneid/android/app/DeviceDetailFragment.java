@@ -6,27 +6,47 @@
  */
 package org.opendroneid.android.app;
 
+import androidx.lifecycle.LiveData;
 import androidx.lifecycle.ViewModelProvider;
 
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
 import android.widget.TextView;
 
 import org.opendroneid.android.Constants;
 import org.opendroneid.android.R;
+import org.opendroneid.android.data.Connection;
 import org.opendroneid.android.data.Identification;
+import org.opendroneid.android.log.LogIndex;
 
 import android.graphics.Color;
 
 import java.util.Locale;
 
 public class DeviceDetailFragment extends DialogFragment {
+    private static final long TICK_INTERVAL_MS = 1000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private LiveData<Connection> connection;
+    private LiveData<Identification> identification1;
+    // Keeps the connection times counting between messages
+    private final Runnable ticker = new Runnable() {
+        @Override
+        public void run() {
+            if (connection != null)
+                updateElapsed(connection.getValue());
+            handler.postDelayed(this, TICK_INTERVAL_MS);
+        }
+    };
     private TextView msgVersion;
     private TextView receiveTime;
     private TextView conMac;
@@ -104,6 +124,24 @@ public class DeviceDetailFragment extends DialogFragment {
         infoUasId.setText(identification.getUasIdAsString());
     }
 
+    private void updateElapsed(Connection connection) {
+        if (connection == null) return;
+        conStarted.setText(String.format(Locale.US,"%s ago", DeviceList.elapsed(connection.firstSeen)));
+        conLastUpdate.setText(String.format(Locale.US,"%s ago", DeviceList.elapsed(connection.lastSeen)));
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        handler.postDelayed(ticker, TICK_INTERVAL_MS);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        handler.removeCallbacks(ticker);
+    }
+
     @Override
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
         if (getActivity() == null)
@@ -112,6 +150,8 @@ public class DeviceDetailFragment extends DialogFragment {
         super.onActivityCreated(savedInstanceState);
         DetailViewModel model = new ViewModelProvider(getActivity()).get(DetailViewModel.class);
 
+        this.connection = model.connection;
+        this.identification1 = model.identification1;
         model.connection.observe(getViewLifecycleOwner(), connection -> {
             if (connection == null) return;
             String combo = connection.rssi + " dBm, " + connection.transportType;
@@ -123,8 +163,7 @@ public class DeviceDetailFragment extends DialogFragment {
             else
                 msgVersion.setTextColor(Color.GRAY);
             receiveTime.setText(connection.getTimestampAsString());
-            conStarted.setText(String.format(Locale.US,"%s ago", DeviceList.elapsed(connection.firstSeen)));
-            conLastUpdate.setText(String.format(Locale.US,"%s ago", DeviceList.elapsed(connection.lastSeen)));
+            updateElapsed(connection);
             conMsgDelta.setText(connection.getMsgDeltaAsString());
         });
 
@@ -293,6 +332,21 @@ public class DeviceDetailFragment extends DialogFragment {
         operatorIdLastUpdate = view.findViewById(R.id.operatorIdLastUpdate);
         operatorIdType = view.findViewById(R.id.operatorIdType);
         operatorId = view.findViewById(R.id.operatorId);
+
+        Button extractLog = view.findViewById(R.id.extractLog);
+        if (getActivity() instanceof DebugActivity)
+            extractLog.setOnClickListener(v -> extractFromLog());
+        else
+            extractLog.setVisibility(View.GONE);
         return view;
     }
+
+    private void extractFromLog() {
+        Connection con = connection != null ? connection.getValue() : null;
+        if (con == null || !(getActivity() instanceof DebugActivity))
+            return;
+        Identification identification = identification1.getValue();
+        String uasId = identification != null ? LogIndex.uasIdKey(identification.getUasId()) : null;
+        ((DebugActivity) getActivity()).extractFromLog(con.macAddress, uasId, con.firstSeen);
+    }
 }
@@ -15,7 +15,10 @@ import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.StateListDrawable;
+import android.location.Location;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
@@ -32,9 +35,7 @@ import android.widget.TextView;
 import org.opendroneid.android.Constants;
 import org.opendroneid.android.R;
 import org.opendroneid.android.data.AircraftObject;
-import org.opendroneid.android.data.Connection;
 import org.opendroneid.android.data.Identification;
-import org.opendroneid.android.data.LocationData;
 import org.opendroneid.android.ridguard.RidGuardDroneUtils;
 import org.opendroneid.android.ridguard.RidGuardRepository;
 import org.opendroneid.android.ridguard.RidGuardSettings;
@@ -45,18 +46,37 @@ import com.mikepenz.fastadapter.items.AbstractItem;
 import com.mikepenz.fastadapter.select.SelectExtension;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class DeviceList extends Fragment {
     private static final String TAG = "CustomAdapter";
+    private static final long TICK_INTERVAL_MS = 1000;
 
     private AircraftViewModel mModel;
     private ModelAdapter<AircraftObject, ListItem> mItemAdapter;
     private FastAdapter<ListItem> mAdapter;
+    private RecyclerView mRecyclerView;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Row texts are formatted here, in the order the changes were published
+    private final ExecutorService rowExecutor = Executors.newSingleThreadExecutor();
+    private final Map<Long, AircraftRowState> rowStates = new HashMap<>();
+    // Bumped when the list starts over, so rows still being built for the old list are dropped
+    private int listGeneration;
+    // Counts the last seen time up and rotates the shown BasicId, on the visible rows only
+    private final Runnable ticker = new Runnable() {
+        @Override
+        public void run() {
+            tickVisibleRows();
+            handler.postDelayed(this, TICK_INTERVAL_MS);
+        }
+    };
 
     public static DeviceList newInstance() {
         return new DeviceList();
@@ -64,12 +84,14 @@ public class DeviceList extends Fragment {
 
     private void subscribeToModel(AircraftViewModel model) {
         mModel = model;
-        final Observer<Set<AircraftObject>> listObserver = aircraftList -> {
-            if (aircraftList == null)
-                return;
-            Log.d(TAG, "DeviceList onChanged: " + aircraftList);
-            mItemAdapter.setNewList(new ArrayList<>(aircraftList));
-        };
+        // Start from the aircraft the feed already reported, then follow its changes
+        model.takeChanges();
+        listGeneration++;
+        rowStates.clear();
+        AircraftViewModel.AircraftChanges initial = new AircraftViewModel.AircraftChanges();
+        initial.added.addAll(model.getPublishedAircraft());
+        applyChanges(initial);
+        final Observer<AircraftViewModel.AircraftChanges> changesObserver = ignored -> applyChanges(mModel.takeChanges());
 
         model.getActiveAircraft().observe(getViewLifecycleOwner(), object -> {
             SelectExtension<ListItem> selectExtension = mAdapter.getExtension(SelectExtension.class);
@@ -81,7 +103,51 @@ public class DeviceList extends Fragment {
                 selectExtension.selectByIdentifier(object.getMacAddress(), false, false);
             }
         });
-        mModel.getAllAircraft().observe(getViewLifecycleOwner(), listObserver);
+        mModel.getChanges().observe(getViewLifecycleOwner(), changesObserver);
+    }
+
+    /** Build the row states of the added and changed aircraft in the background, then apply them. */
+    private void applyChanges(AircraftViewModel.AircraftChanges changes) {
+        if (changes.isEmpty())
+            return;
+        Location receiver = RidGuardRepository.getInstance(requireContext()).getReceiverLocation();
+        List<AircraftRowState.Input> inputs = new ArrayList<>(changes.added.size() + changes.changed.size());
+        for (AircraftObject object : changes.added)
+            inputs.add(new AircraftRowState.Input(object, receiver));
+        for (AircraftObject object : changes.changed.keySet())
+            inputs.add(new AircraftRowState.Input(object, receiver));
+        Resources res = getResources();
+        int generation = listGeneration;
+        rowExecutor.execute(() -> {
+            List<AircraftRowState> states = new ArrayList<>(inputs.size());
+            for (AircraftRowState.Input input : inputs)
+                states.add(new AircraftRowState(input, res));
+            handler.post(() -> {
+                if (generation == listGeneration)
+                    applyRows(changes, states);
+            });
+        });
+    }
+
+    /** Add and remove rows and rebind only the parts of the rows whose aircraft changed. */
+    private void applyRows(AircraftViewModel.AircraftChanges changes, List<AircraftRowState> states) {
+        if (getView() == null)
+            return;
+        for (AircraftRowState state : states)
+            rowStates.put(state.macAddress, state);
+        for (AircraftObject object : changes.removed) {
+            rowStates.remove(object.getMacAddress());
+            mItemAdapter.removeByIdentifier(object.getMacAddress());
+        }
+        if (!changes.added.isEmpty()) {
+            Log.d(TAG, "DeviceList added: " + changes.added);
+            mItemAdapter.add(changes.added);
+        }
+        for (Map.Entry<AircraftObject, Integer> entry : changes.changed.entrySet()) {
+            int position = mAdapter.getPosition(entry.getKey().getMacAddress());
+            if (position != RecyclerView.NO_POSITION)
+                mAdapter.notifyAdapterItemChanged(position, entry.getValue());
+        }
     }
 
     @Override
@@ -120,7 +186,7 @@ public class DeviceList extends Fragment {
                 }
             }
         });
-        RecyclerView mRecyclerView = viewGroup.findViewById(R.id.device_list);
+        mRecyclerView = viewGroup.findViewById(R.id.device_list);
         mRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
         mRecyclerView.setAdapter(mAdapter);
         mRecyclerView.scrollToPosition(0);
@@ -128,6 +194,34 @@ public class DeviceList extends Fragment {
         return viewGroup;
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        rowExecutor.shutdownNow();
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        handler.post(ticker);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        handler.removeCallbacks(ticker);
+    }
+
+    private void tickVisibleRows() {
+        if (mRecyclerView == null)
+            return;
+        for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder = mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i));
+            if (holder instanceof AircraftViewHolder)
+                ((AircraftViewHolder) holder).tick();
+        }
+    }
+
     static String elapsed(long start) {
         long millis = System.currentTimeMillis() - start;
         return String.format(Locale.US, "%02d:%02d ",
@@ -155,6 +249,8 @@ public class DeviceList extends Fragment {
         private final TextView metricsView;
         private final TextView rssiView;
         private AircraftObject aircraft;
+        private AircraftRowState state;
+        private String lastSeenText;
         private final View view;
         private final ImageView iconImageView;
         private final Drawable droneIcon;
@@ -167,7 +263,7 @@ public class DeviceList extends Fragment {
             textView2 = v.findViewById(R.id.aircraftFun);
             metricsView = v.findViewById(R.id.aircraftMetrics);
             rssiView = v.findViewById(R.id.rssi);
-            ridGuardSettings = new RidGuardSettings(v.getContext());
+            ridGuardSettings = RidGuardRepository.getInstance(v.getContext()).getSettings();
 
             Button button = v.findViewById(R.id.modButton);
             button.setText(R.string.info);
@@ -183,108 +279,80 @@ public class DeviceList extends Fragment {
             iconImageView = v.findViewById(R.id.drone_icon);
         }
 
-        private void setIdText(Identification id) {
-            if (id.getUasIdAsString().length() > Constants.MAX_ID_BYTE_SIZE)
-                textView.setTextSize(9);
-            else
-                textView.setTextSize(16);
-            textView.setText(String.format("%s", id.getUasIdAsString()));
+        private void setIdText(String idText, boolean longId) {
+            textView.setTextSize(longId ? 9 : 16);
+            textView.setText(idText);
         }
 
+        /**
+         * A full bind when {@code payloads} is empty, otherwise the payloads are the
+         * AircraftObject.CHANGED_* flags of the parts to refresh. The texts come ready made from
+         * the row state.
+         */
         @Override
         public void bindView(@NonNull ListItem aircraftItem, @NonNull List<Object> payloads) {
             if (getContext() == null)
                 return;
 
-            this.aircraft = aircraftItem.object;
+            int flags = 0;
+            for (Object payload : payloads) {
+                if (payload instanceof Integer)
+                    flags |= (Integer) payload;
+            }
+            if (payloads.isEmpty() || flags == 0 || this.aircraft != aircraftItem.object) {
+                this.aircraft = aircraftItem.object;
+                StateListDrawable selectableBackground =
+                        FastAdapterUIUtils.getSelectableBackground(getContext(), Color.LTGRAY, true);
+                view.setBackground(selectableBackground);
+                flags = AircraftObject.CHANGED_CONNECTION | AircraftObject.CHANGED_LOCATION
+                        | AircraftObject.CHANGED_IDENTIFICATION;
+            }
+            state = rowStates.get(aircraft.getMacAddress());
+            if (state == null)
+                return;
 
-            StateListDrawable selectableBackground =
-                    FastAdapterUIUtils.getSelectableBackground(getContext(), Color.LTGRAY, true);
-            view.setBackground(selectableBackground);
-            Identification id = aircraft.getIdentification1();
-            if (id != null)
-                setIdText(id);
+            if ((flags & AircraftObject.CHANGED_IDENTIFICATION) != 0 && state.idText != null) {
+                setIdText(state.idText, state.longId);
+                assert droneIcon != null;
+                droneIcon.setColorFilter(0xff00ff00, PorterDuff.Mode.MULTIPLY);
+                iconImageView.setImageDrawable(droneIcon);
+            }
+            if ((flags & AircraftObject.CHANGED_CONNECTION) != 0 && state.rssiText != null)
+                rssiView.setText(state.rssiText);
+            if ((flags & AircraftObject.CHANGED_LOCATION) != 0 && state.locationText != null)
+                textView2.setText(state.locationText);
+            if ((flags & (AircraftObject.CHANGED_CONNECTION | AircraftObject.CHANGED_LOCATION)) != 0) {
+                lastSeenText = AircraftRowState.formatLastSeen(state.lastSeen, System.currentTimeMillis());
+                metricsView.setText(state.metricsPrefix + lastSeenText);
+            }
+        }
 
-            aircraft.connection.observe(DeviceList.this, connectionObserver);
-            aircraft.location.observe(DeviceList.this, locationObserver);
-            aircraft.id1Shadow.observe(DeviceList.this, observer);
-            aircraft.id2Shadow.observe(DeviceList.this, observer);
+        /** Once per second while visible: only the time dependent texts change. */
+        void tick() {
+            if (aircraft == null || state == null)
+                return;
+            if (aircraft.updateShadowBasicId()) {
+                Identification id = aircraft.getShownIdentification();
+                if (id != null) {
+                    String idText = id.getUasIdAsString();
+                    setIdText(idText, idText.length() > Constants.MAX_ID_BYTE_SIZE);
+                }
+            }
+            String lastSeenText = AircraftRowState.formatLastSeen(state.lastSeen, System.currentTimeMillis());
+            if (!lastSeenText.equals(this.lastSeenText)) {
+                this.lastSeenText = lastSeenText;
+                metricsView.setText(state.metricsPrefix + lastSeenText);
+            }
         }
 
         @Override
         public void unbindView(@NonNull ListItem aircraftItem) {
-            aircraft.id1Shadow.removeObserver(observer);
-            aircraft.id2Shadow.removeObserver(observer);
-            aircraft.connection.removeObserver(connectionObserver);
-            aircraft.location.removeObserver(locationObserver);
+            aircraft = null;
+            state = null;
             textView.setText(null);
             textView2.setText(null);
             metricsView.setText(null);
         }
-        final Observer<Connection> connectionObserver = new Observer<Connection>() {
-            @Override
-            public void onChanged(Connection connection) {
-                if (connection != null) {
-                    rssiView.setText(String.format(Locale.US, "%s dBm", connection.rssi));
-                    updateMetrics(connection, aircraft.getLocation());
-                }
-            }
-        };
-        final Observer<LocationData> locationObserver = new Observer<LocationData>() {
-            @Override
-            public void onChanged(LocationData locationData) {
-                if (locationData != null) {
-                    Resources res = getResources();
-                    textView2.setText(String.format(Locale.US, "%s over %s, %s, %s away",
-                            locationData.getHeightLessPreciseAsString(res),
-                            locationData.getHeightType().toString(),
-                            locationData.getSpeedHorizontalLessPreciseAsString(res),
-                            locationData.getDistanceAsString()));
-                    updateMetrics(aircraft.getConnection(), locationData);
-                }
-            }
-        };
-
-        final Observer<Identification> observer = new Observer<Identification>() {
-            @Override
-            public void onChanged(Identification identification) {
-                if (identification != null) {
-                    Log.w(TAG, "on changed: " + identification.getIdType() + ", " + identification.getUasIdAsString() + ", " + this);
-                    setIdText(identification);
-
-                    assert droneIcon != null;
-                    droneIcon.setColorFilter(0xff00ff00, PorterDuff.Mode.MULTIPLY);
-                    iconImageView.setImageDrawable(droneIcon);
-                }
-            }
-        };
-
-        private void updateMetrics(Connection connection, LocationData locationData) {
-            float distance = locationData != null ? locationData.getDistance() : 0f;
-            String distanceText = distance > 0 ? String.format(Locale.US, "%.0f m", distance) : "–";
-            Double altitudeDiff = null;
-            if (locationData != null) {
-                double droneAlt = locationData.getAltitudeGeodetic();
-                if (droneAlt == -1000) {
-                    droneAlt = locationData.getAltitudePressure();
-                }
-                if (droneAlt != -1000 && RidGuardRepository.getInstance(requireContext()).getReceiverLocation() != null) {
-                    altitudeDiff = droneAlt - RidGuardRepository.getInstance(requireContext()).getReceiverLocation().getAltitude();
-                }
-            }
-            String altitudeText = altitudeDiff != null ? String.format(Locale.US, "%.0f m", altitudeDiff) : "–";
-            String speedText = locationData != null && locationData.getSpeedHorizontal() != 255
-                    ? String.format(Locale.US, "%.1f m/s", locationData.getSpeedHorizontal()) : "–";
-            String headingText = locationData != null && locationData.getDirection() != 361
-                    ? String.format(Locale.US, "%.0f°", locationData.getDirection()) : "–";
-            long lastSeen = connection != null ? connection.lastSeen : 0L;
-            String lastSeenText = lastSeen > 0
-                    ? String.format(Locale.US, "%ds", Math.max(0, (System.currentTimeMillis() - lastSeen) / 1000))
-                    : "–";
-            metricsView.setText(String.format(Locale.US,
-                    "%s · Δalt %s · v %s · hdg %s · %s",
-                    distanceText, altitudeText, speedText, headingText, lastSeenText));
-        }
     }
 
     public class ListItem extends AbstractItem<ListItem, AircraftViewHolder> {
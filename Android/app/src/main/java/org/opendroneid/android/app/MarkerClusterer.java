@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.app;
+
+import org.opendroneid.android.data.LocationData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups map items that are close together at the current zoom level into clusters.
+ *
+ * Items are bucketed into a grid of {@link #CELL_SIZE_PX} screen pixels laid over the Web Mercator
+ * world, so panning never changes the clusters and only a change of the integer zoom level
+ * re-buckets all items. An item that moves only touches the cells it leaves and enters. Each
+ * cluster tracks its centroid and its most important member, the one with the lowest rank (e.g.
+ * the nearest aircraft). Clusters that changed since the last {@link #drainChanged} are
+ * collected, so a map view only has to refresh those.
+ */
+class MarkerClusterer<T> {
+    static final int CELL_SIZE_PX = 64;
+    private static final int TILE_SIZE_PX = 256;
+
+    static final class Cluster<T> {
+        private final long key;
+        private final List<T> members = new ArrayList<>();
+        private T representative;
+        private double representativeRank;
+        private double sumX;
+        private double sumY;
+
+        private Cluster(long key) {
+            this.key = key;
+        }
+
+        int size() { return members.size(); }
+        List<T> getMembers() { return members; }
+        /** The member with the lowest rank. */
+        T getRepresentative() { return representative; }
+        double getLatitude() { return latitudeOf(sumY / members.size()); }
+        double getLongitude() { return longitudeOf(sumX / members.size()); }
+        boolean isRemoved() { return members.isEmpty(); }
+    }
+
+    private static final class Item<T> {
+        double x;
+        double y;
+        double rank;
+        Cluster<T> cluster;
+    }
+
+    private final Map<T, Item<T>> items = new HashMap<>();
+    private final Map<Long, Cluster<T>> clusters = new HashMap<>();
+    private final Set<Cluster<T>> changed = new LinkedHashSet<>();
+    private int zoom = -1;
+    private double cellSize = 1;
+
+    /** @return true if the zoom level changed and all items were re-bucketed */
+    boolean setZoom(int zoom) {
+        if (zoom == this.zoom)
+            return false;
+        this.zoom = zoom;
+        cellSize = (double) CELL_SIZE_PX / (TILE_SIZE_PX * Math.pow(2, zoom));
+        changed.addAll(clusters.values());
+        for (Cluster<T> cluster : clusters.values()) {
+            cluster.members.clear();
+        }
+        clusters.clear();
+        for (Map.Entry<T, Item<T>> entry : items.entrySet()) {
+            entry.getValue().cluster = null;
+            place(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    int getZoom() { return zoom; }
+
+    /** Add or move an item; a lower {@code rank} makes it more likely to represent its cluster. */
+    void update(T object, double latitude, double longitude, double rank) {
+        Item<T> item = items.get(object);
+        if (item == null) {
+            item = new Item<>();
+            items.put(object, item);
+        }
+        double x = (longitude + 180) / 360;
+        double sinLatitude = Math.sin(Math.toRadians(Math.max(-85, Math.min(85, latitude))));
+        double y = 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+        Cluster<T> cluster = item.cluster;
+        if (cluster != null && cluster.key == keyOf(x, y)) {
+            cluster.sumX += x - item.x;
+            cluster.sumY += y - item.y;
+            item.x = x;
+            item.y = y;
+            item.rank = rank;
+            updateRepresentative(cluster, object, rank);
+            changed.add(cluster);
+            return;
+        }
+        if (cluster != null)
+            leave(object, item);
+        item.x = x;
+        item.y = y;
+        item.rank = rank;
+        place(object, item);
+    }
+
+    void remove(T object) {
+        Item<T> item = items.remove(object);
+        if (item != null && item.cluster != null)
+            leave(object, item);
+    }
+
+    /** The cluster holding {@code object}, or null if it is unknown. */
+    Cluster<T> getCluster(T object) {
+        Item<T> item = items.get(object);
+        return item != null ? item.cluster : null;
+    }
+
+    Collection<Cluster<T>> getClusters() {
+        return clusters.values();
+    }
+
+    /** Clusters that were created, changed or removed since the previous call. */
+    List<Cluster<T>> drainChanged() {
+        List<Cluster<T>> result = new ArrayList<>(changed);
+        changed.clear();
+        return result;
+    }
+
+    private void place(T object, Item<T> item) {
+        if (zoom < 0)
+            return;
+        long key = keyOf(item.x, item.y);
+        Cluster<T> cluster = clusters.get(key);
+        if (cluster == null) {
+            cluster = new Cluster<>(key);
+            clusters.put(key, cluster);
+        }
+        cluster.members.add(object);
+        cluster.sumX += item.x;
+        cluster.sumY += item.y;
+        updateRepresentative(cluster, object, item.rank);
+        item.cluster = cluster;
+        changed.add(cluster);
+    }
+
+    private void leave(T object, Item<T> item) {
+        Cluster<T> cluster = item.cluster;
+        item.cluster = null;
+        cluster.members.remove(object);
+        cluster.sumX -= item.x;
+        cluster.sumY -= item.y;
+        changed.add(cluster);
+        if (cluster.members.isEmpty()) {
+            clusters.remove(cluster.key);
+            cluster.representative = null;
+        } else if (object.equals(cluster.representative)) {
+            findRepresentative(cluster);
+        }
+    }
+
+    private void updateRepresentative(Cluster<T> cluster, T object, double rank) {
+        if (cluster.representative == null || rank < cluster.representativeRank) {
+            cluster.representative = object;
+            cluster.representativeRank = rank;
+        } else if (object.equals(cluster.representative)) {
+            // The representative got less important, another member may now rank higher
+            findRepresentative(cluster);
+        }
+    }
+
+    private void findRepresentative(Cluster<T> cluster) {
+        cluster.representative = null;
+        for (T member : cluster.members) {
+            double rank = items.get(member).rank;
+            if (cluster.representative == null || rank < cluster.representativeRank) {
+                cluster.representative = member;
+                cluster.representativeRank = rank;
+            }
+        }
+    }
+
+    /** Rank that puts the aircraft nearest to the receiver first; unknown distances go last. */
+    static double rankOf(LocationData location) {
+        return location != null && location.getDistance() > 0 ? location.getDistance() : Double.MAX_VALUE;
+    }
+
+    private long keyOf(double x, double y) {
+        return ((long) (x / cellSize) << 32) | ((long) (y / cellSize) & 0xffffffffL);
+    }
+
+    private static double longitudeOf(double x) {
+        return x * 360 - 180;
+    }
+
+    private static double latitudeOf(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.app;
+
+import org.opendroneid.android.data.TrackBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Map library point list that follows a {@link TrackBuffer}. {@link #sync} only converts the
+ * points added since the last call, so keeping a track on the map costs O(new points) per update
+ * instead of O(track length).
+ */
+abstract class TrackPoints<P> {
+    static final int UNCHANGED = 0;
+    static final int APPENDED = 1;
+    static final int CHANGED = 2;
+
+    final List<P> points = new ArrayList<>();
+    private long firstSequence;
+    private long endSequence;
+    private int tailVersion;
+    private int generation = -1;
+
+    abstract P toPoint(double latitude, double longitude);
+
+    /**
+     * @return {@link #APPENDED} if points were only added at the end, {@link #CHANGED} if existing
+     * points were moved or removed as well, {@link #UNCHANGED} otherwise
+     */
+    int sync(TrackBuffer buffer) {
+        if (buffer.getGeneration() != generation) {
+            points.clear();
+            generation = buffer.getGeneration();
+            firstSequence = endSequence = buffer.getFirstSequence();
+            tailVersion = buffer.getTailVersion();
+            appendFrom(buffer, firstSequence);
+            return CHANGED;
+        }
+        int result = UNCHANGED;
+        long first = buffer.getFirstSequence();
+        if (first > firstSequence) {
+            points.subList(0, (int) Math.min(first - firstSequence, points.size())).clear();
+            firstSequence = first;
+            result = CHANGED;
+        }
+        if (buffer.getTailVersion() != tailVersion) {
+            tailVersion = buffer.getTailVersion();
+            long tail = endSequence - 1;
+            if (tail >= firstSequence && !points.isEmpty()) {
+                points.set(points.size() - 1, toPoint(buffer.getLatitude(tail), buffer.getLongitude(tail)));
+                result = CHANGED;
+            }
+        }
+        if (appendFrom(buffer, Math.max(endSequence, firstSequence)) && result == UNCHANGED)
+            result = APPENDED;
+        return result;
+    }
+
+    private boolean appendFrom(TrackBuffer buffer, long start) {
+        long end = buffer.getEndSequence();
+        for (long i = start; i < end; i++)
+            points.add(toPoint(buffer.getLatitude(i), buffer.getLongitude(i)));
+        endSequence = end;
+        return start < end;
+    }
+}
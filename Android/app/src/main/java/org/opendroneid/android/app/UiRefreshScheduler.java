@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.opendroneid.android.bluetooth.OpenDroneIdDataManager;
+
+/**
+ * Refreshes the UI when the data manager reports a change instead of on a fixed timer.
+ *
+ * The first change after a refresh schedules the next one, at most once per
+ * {@link #MIN_INTERVAL_MS}, so a burst of messages costs a single refresh and a quiet sky costs
+ * nothing. Must be started and stopped on the main thread, where the data manager is fed.
+ */
+public class UiRefreshScheduler {
+    static final long MIN_INTERVAL_MS = 250;
+
+    private final OpenDroneIdDataManager dataManager;
+    private final Runnable listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = this::refresh;
+    private boolean scheduled;
+    private long lastRefresh;
+
+    public UiRefreshScheduler(OpenDroneIdDataManager dataManager, Runnable listener) {
+        this.dataManager = dataManager;
+        this.listener = listener;
+    }
+
+    /** Refresh now and then again after every change. */
+    public void start() {
+        dataManager.setChangeListener(this::schedule);
+        refreshNow();
+    }
+
+    public void stop() {
+        dataManager.setChangeListener(null);
+        handler.removeCallbacks(refresh);
+        scheduled = false;
+    }
+
+    /** Refresh outside of the change feed, e.g. after the aircraft list was cleared. */
+    public void refreshNow() {
+        handler.removeCallbacks(refresh);
+        scheduled = false;
+        // Clearing the flag re-arms the change listener
+        dataManager.takeDirty();
+        lastRefresh = SystemClock.uptimeMillis();
+        listener.run();
+    }
+
+    private void schedule() {
+        if (scheduled)
+            return;
+        scheduled = true;
+        long delay = lastRefresh + MIN_INTERVAL_MS - SystemClock.uptimeMillis();
+        handler.postDelayed(refresh, Math.max(0, delay));
+    }
+
+    private void refresh() {
+        scheduled = false;
+        if (dataManager.takeDirty()) {
+            lastRefresh = SystemClock.uptimeMillis();
+            listener.run();
+        }
+    }
+}
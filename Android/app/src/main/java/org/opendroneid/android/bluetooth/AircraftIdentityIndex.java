@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.bluetooth;
+
+import org.opendroneid.android.data.AircraftObject;
+import org.opendroneid.android.data.Identification;
+import org.opendroneid.android.data.OperatorIdData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the aircraft that another one duplicates, so that a drone heard over several transports
+ * or rotating its MAC address is kept as one aircraft.
+ *
+ * Aircraft are matched on their UAS IDs. An aircraft without a UAS ID yet may be matched on its
+ * operator ID to an aircraft that has one. As one operator may fly several drones, such a match
+ * is only provisional (see {@link #conflicts}), and an operator ID seen on two drones is not
+ * matched on any more.
+ */
+final class AircraftIdentityIndex {
+    private final Map<String, AircraftObject> byUasId = new HashMap<>();
+    private final Map<String, AircraftObject> byOperatorId = new HashMap<>();
+    private final Set<String> ambiguousOperatorIds = new HashSet<>();
+
+    /**
+     * Look up {@code aircraft} after its identification or operator ID changed.
+     *
+     * @return the aircraft it duplicates, or null after indexing it
+     */
+    AircraftObject resolve(AircraftObject aircraft) {
+        String id1 = uasKey(aircraft.getIdentification1());
+        String id2 = uasKey(aircraft.getIdentification2());
+        String operator = operatorKey(aircraft.getOperatorID());
+
+        AircraftObject match = find(byUasId, id1, aircraft);
+        if (match == null)
+            match = find(byUasId, id2, aircraft);
+        if (match == null && id1 == null && id2 == null && !ambiguousOperatorIds.contains(operator)) {
+            match = find(byOperatorId, operator, aircraft);
+            if (match != null && !hasUasId(match))
+                match = null;
+        }
+        if (match != null)
+            return match;
+
+        if (id1 != null)
+            byUasId.put(id1, aircraft);
+        if (id2 != null)
+            byUasId.put(id2, aircraft);
+        if (operator != null) {
+            AircraftObject existing = byOperatorId.get(operator);
+            if (existing == null)
+                byOperatorId.put(operator, aircraft);
+            else if (existing != aircraft)
+                setAmbiguous(operator);
+        }
+        return null;
+    }
+
+    /**
+     * Whether {@code id}, received on a link joined to {@code aircraft} on the operator ID alone,
+     * shows it may be another drone: it is none of the UAS IDs of the aircraft. If it was the same
+     * drone after all, the split off link merges back once their UAS IDs meet.
+     */
+    static boolean conflicts(AircraftObject aircraft, Identification id) {
+        return uasKey(id) != null && !matches(aircraft, id);
+    }
+
+    /** Whether {@code id} is one of the UAS IDs of {@code aircraft}. */
+    static boolean matches(AircraftObject aircraft, Identification id) {
+        String key = uasKey(id);
+        return key != null && (key.equals(uasKey(aircraft.getIdentification1()))
+                || key.equals(uasKey(aircraft.getIdentification2())));
+    }
+
+    static boolean hasUasId(AircraftObject aircraft) {
+        return uasKey(aircraft.getIdentification1()) != null || uasKey(aircraft.getIdentification2()) != null;
+    }
+
+    /** Stop matching on the operator ID of {@code aircraft}, as another drone shares it. */
+    void setAmbiguous(AircraftObject aircraft) {
+        String operator = operatorKey(aircraft.getOperatorID());
+        if (operator != null)
+            setAmbiguous(operator);
+    }
+
+    /** Forget {@code aircraft}, e.g. after it was merged into another one. */
+    void remove(AircraftObject aircraft) {
+        removeValue(byUasId, aircraft);
+        removeValue(byOperatorId, aircraft);
+    }
+
+    void clear() {
+        byUasId.clear();
+        byOperatorId.clear();
+        ambiguousOperatorIds.clear();
+    }
+
+    private void setAmbiguous(String operator) {
+        byOperatorId.remove(operator);
+        ambiguousOperatorIds.add(operator);
+    }
+
+    private static AircraftObject find(Map<String, AircraftObject> index, String key, AircraftObject aircraft) {
+        if (key == null)
+            return null;
+        AircraftObject match = index.get(key);
+        return match != aircraft ? match : null;
+    }
+
+    private static void removeValue(Map<String, AircraftObject> index, AircraftObject aircraft) {
+        Iterator<AircraftObject> iterator = index.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == aircraft)
+                iterator.remove();
+        }
+    }
+
+    private static String uasKey(Identification id) {
+        if (id == null || id.getIdType() == Identification.IdTypeEnum.None)
+            return null;
+        String value = trimmed(id.getUasId());
+        return value != null ? id.getIdType().ordinal() + ":" + value : null;
+    }
+
+    private static String operatorKey(OperatorIdData operatorId) {
+        return operatorId != null ? trimmed(operatorId.getOperatorId()) : null;
+    }
+
+    /** The bytes without trailing zero padding as a string, or null if all zero. */
+    private static String trimmed(byte[] bytes) {
+        if (bytes == null)
+            return null;
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == 0)
+            length--;
+        return length > 0 ? new String(bytes, 0, length, StandardCharsets.ISO_8859_1) : null;
+    }
+}
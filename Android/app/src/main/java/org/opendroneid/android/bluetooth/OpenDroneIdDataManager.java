@@ -17,10 +17,18 @@ import org.opendroneid.android.data.AuthenticationData;
 import org.opendroneid.android.data.LocationData;
 import org.opendroneid.android.data.SelfIdData;
 import org.opendroneid.android.data.SystemData;
+import org.opendroneid.android.data.TrackFilter;
+import org.opendroneid.android.data.TransportLink;
 import org.opendroneid.android.data.OperatorIdData;
+import org.opendroneid.android.data.WorldSnapshot;
 import org.opendroneid.android.log.LogMessageEntry;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class OpenDroneIdDataManager {
@@ -31,10 +39,19 @@ public class OpenDroneIdDataManager {
     public android.location.Location receiverLocation;
 
     private final Callback callback;
+    private Runnable changeListener;
+    private boolean dirty;
+    private boolean uiAttached = true;
+    private volatile WorldSnapshot snapshot = WorldSnapshot.EMPTY;
+    // Every transport key (MAC address, NaN peer, beacon BSSID) to the aircraft it belongs to
+    private final Map<Long, AircraftObject> transports = new HashMap<>();
+    private final AircraftIdentityIndex identityIndex = new AircraftIdentityIndex();
 
     public static class Callback {
         public void onNewAircraft(AircraftObject object) {}
         public void onAircraftUpdated(AircraftObject object) {}
+        /** {@code from} turned out to be {@code into} heard over another transport and was removed. */
+        public void onAircraftMerged(AircraftObject from, AircraftObject into) {}
     }
 
     public OpenDroneIdDataManager(Callback callback) {
@@ -45,6 +62,79 @@ public class OpenDroneIdDataManager {
         return aircraft;
     }
 
+    /** The aircraft as of the latest ingest; immutable, may be read from any thread. */
+    public WorldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Forget all aircraft. */
+    public void clear() {
+        aircraft.clear();
+        transports.clear();
+        identityIndex.clear();
+        snapshot = snapshot.cleared();
+        markDirty();
+    }
+
+    /**
+     * Whether a screen shows these aircraft. While detached the LiveData views of the aircraft
+     * are dropped once unobserved; the snapshot is still published for background readers.
+     */
+    public void setUiAttached(boolean attached) {
+        uiAttached = attached;
+    }
+
+    /**
+     * Per transport type, how often it delivered a message first, how often a copy came later
+     * and how late on average, e.g. "BT4: 120 first, 30 late (+45 ms)".
+     */
+    public String getArrivalSummary() {
+        Map<String, long[]> totals = new TreeMap<>();
+        for (AircraftObject ac : aircraft.values()) {
+            for (TransportLink link : ac.getLinks()) {
+                String type = link.transportType != null ? link.transportType : "?";
+                long[] total = totals.get(type);
+                if (total == null) {
+                    total = new long[3];
+                    totals.put(type, total);
+                }
+                total[0] += link.firstArrivals;
+                total[1] += link.lateArrivals;
+                total[2] += link.lateNanos;
+            }
+        }
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            if (summary.length() > 0)
+                summary.append("; ");
+            summary.append(String.format(Locale.US, "%s: %d first, %d late (+%.0f ms)", entry.getKey(),
+                    total[0], total[1], total[1] > 0 ? total[2] / 1e6 / total[1] : 0.0));
+        }
+        return summary.toString();
+    }
+
+    /** Run on the first change after {@link #takeDirty()}, e.g. to schedule a UI refresh. */
+    public void setChangeListener(Runnable listener) {
+        changeListener = listener;
+    }
+
+    /** Flag that aircraft were added, updated or removed. */
+    public void markDirty() {
+        if (dirty)
+            return;
+        dirty = true;
+        if (changeListener != null)
+            changeListener.run();
+    }
+
+    /** Whether anything changed since the previous call, which clears the flag. */
+    public boolean takeDirty() {
+        boolean wasDirty = dirty;
+        dirty = false;
+        return wasDirty;
+    }
+
     void receiveDataBluetooth(byte[] data, ScanResult result, LogMessageEntry logMessageEntry,
                               String transportType) {
         String macAddress = result.getDevice().getAddress();
@@ -83,33 +173,132 @@ public class OpenDroneIdDataManager {
 
         // Handle connection
         boolean newAircraft = false;
-        AircraftObject ac = aircraft.get(macAddressLong);
+        AircraftObject ac = transports.get(macAddressLong);
         if (ac == null) {
             ac = createNewAircraft(macAddress, macAddressLong);
             newAircraft = true;
         }
         long currentTime = System.currentTimeMillis();
+        TransportLink link = ac.getLink(macAddressLong);
+        if (link == null) {
+            link = new TransportLink(macAddressLong, macAddress, currentTime);
+            addLink(ac, link);
+        }
+        link.lastSeen = currentTime;
+        link.rssi = rssi;
+        link.transportType = transportType;
+        link.messages++;
+        if (link.provisional) {
+            AircraftObject split = checkProvisionalLink(ac, link, message);
+            if (split != null) {
+                ac = split;
+                newAircraft = true;
+            }
+        }
+
+        int identityVersion = getIdentityVersion(ac);
+        boolean applied;
+        if (message.header.type == OpenDroneIdParser.Type.MESSAGE_PACK)
+            applied = handleMessagePack(ac, link, (OpenDroneIdParser.Message<OpenDroneIdParser.MessagePack>) message, timeNano, logMessageEntry, message.msgCounter);
+        else
+            applied = handleFirstArrival(ac, link, message, timeNano);
+
+        // Restore the msgVersion in case the messages embedded in the pack had a different value
+        logMessageEntry.setMsgVersion(message.header.version);
+        // Copies of messages another link delivered first only count for the link statistics
+        if (!applied && !newAircraft)
+            return;
+
         ac.getConnection().msgDelta = currentTime - ac.getConnection().lastSeen;
         ac.getConnection().lastSeen = currentTime;
         ac.getConnection().rssi = rssi;
         ac.getConnection().transportType = transportType;
         ac.getConnection().setTimestamp(timeNano);
         ac.getConnection().setMsgVersion(message.header.version);
-        ac.connection.setValue(ac.connection.getValue());
+        ac.connectionUpdated();
+        // Before any callback, so whoever is told about the aircraft finds its snapshot
+        snapshot.refresh(ac);
 
         if (newAircraft) {
             aircraft.put(macAddressLong, ac);
             callback.onNewAircraft(ac);
         }
+        if (identityVersion != getIdentityVersion(ac)) {
+            AircraftObject original = identityIndex.resolve(ac);
+            if (original != null) {
+                merge(ac, original);
+                return;
+            }
+        }
+        snapshot = snapshot.with(Collections.<Long>emptyList(), Collections.singletonList(ac));
+        if (!uiAttached)
+            ac.releaseLiveData();
+        callback.onAircraftUpdated(ac);
+        markDirty();
+    }
 
-        if (message.header.type == OpenDroneIdParser.Type.MESSAGE_PACK)
-            handleMessagePack(ac, (OpenDroneIdParser.Message<OpenDroneIdParser.MessagePack>) message, timeNano, logMessageEntry, message.msgCounter);
-        else
-            handleMessages(ac, message);
+    private static int getIdentityVersion(AircraftObject ac) {
+        return ac.getVersion(AircraftObject.CHANGED_IDENTIFICATION) + ac.getVersion(AircraftObject.CHANGED_OPERATOR_ID);
+    }
 
-        // Restore the msgVersion in case the messages embedded in the pack had a different value
-        logMessageEntry.setMsgVersion(ac.getConnection().getMsgVersion());
-        callback.onAircraftUpdated(ac);
+    private void addLink(AircraftObject ac, TransportLink link) {
+        transports.put(link.key, ac);
+        TransportLink dropped = ac.addLink(link);
+        if (dropped != null)
+            transports.remove(dropped.key);
+    }
+
+    // Continue with the aircraft heard first; the message just applied to the duplicate is
+    // received on the other transports as well
+    private void merge(AircraftObject duplicate, AircraftObject original) {
+        // Without a UAS ID the match was on the operator ID, which several drones may share
+        boolean provisional = !AircraftIdentityIndex.hasUasId(duplicate);
+        for (TransportLink link : duplicate.getLinks()) {
+            link.provisional = provisional;
+            addLink(original, link);
+        }
+        original.connectionUpdated();
+        aircraft.remove(duplicate.getMacAddress());
+        identityIndex.remove(duplicate);
+        snapshot.refresh(original);
+        snapshot = snapshot.with(Collections.singletonList(duplicate.getMacAddress()),
+                Collections.singletonList(original));
+        callback.onAircraftMerged(duplicate, original);
+        markDirty();
+    }
+
+    // A provisional link is confirmed by a Basic ID with one of the UAS IDs of the aircraft. Any
+    // other UAS ID may be another drone of the same operator: the link is split off into an
+    // aircraft of its own before the frame is applied.
+    private AircraftObject checkProvisionalLink(AircraftObject ac, TransportLink link,
+                                                OpenDroneIdParser.Message<?> message) {
+        for (OpenDroneIdParser.BasicId raw : OpenDroneIdParser.getBasicIds(message)) {
+            Identification id = new Identification();
+            id.setIdType(raw.idType);
+            id.setUasId(raw.uasId);
+            if (AircraftIdentityIndex.matches(ac, id)) {
+                link.provisional = false;
+                return null;
+            }
+            if (AircraftIdentityIndex.conflicts(ac, id)) {
+                link.provisional = false;
+                ac.removeLink(link);
+                identityIndex.setAmbiguous(ac);
+                AircraftObject split = createNewAircraft(link.address, link.key);
+                addLink(split, link);
+                return split;
+            }
+        }
+        return null;
+    }
+
+    /** Apply {@code message} unless it arrived within the ArrivalWindow; returns whether it was applied. */
+    private boolean handleFirstArrival(AircraftObject ac, TransportLink link, OpenDroneIdParser.Message<?> message,
+                                       long timeNano) {
+        if (ac.getArrivals().isDuplicate(message.header.type.ordinal(), message.contentHash, timeNano, link))
+            return false;
+        handleMessages(ac, message);
+        return true;
     }
 
     @SuppressWarnings("unchecked")
@@ -137,20 +326,10 @@ public class OpenDroneIdDataManager {
     }
 
     private AircraftObject createNewAircraft(String macAddress, long macAddressLong) {
-        AircraftObject ac = new AircraftObject(macAddressLong);
         Connection connection = new Connection();
         connection.firstSeen = System.currentTimeMillis();
         connection.macAddress = macAddress;
-        ac.connection.setValue(connection);
-
-        ac.identification1.setValue(new Identification());
-        ac.identification2.setValue(new Identification());
-        ac.location.setValue(new LocationData());
-        ac.authentication.setValue(new AuthenticationData());
-        ac.selfid.setValue(new SelfIdData());
-        ac.system.setValue(new SystemData());
-        ac.operatorid.setValue(new OperatorIdData());
-        return ac;
+        return new AircraftObject(macAddressLong, connection);
     }
 
     private void handleBasicId(AircraftObject ac, OpenDroneIdParser.Message<OpenDroneIdParser.BasicId> message) {
@@ -165,17 +344,13 @@ public class OpenDroneIdDataManager {
 
         // This implementation can receive up-to two different types of Basic ID messages
         // Find a free slot to store the current message in or overwrite old data of same type
-        Identification id1 = ac.identification1.getValue();
-        Identification id2 = ac.identification2.getValue();
-        if (id1 == null || id2 == null)
-            return;
-        Identification.IdTypeEnum type1 = id1.getIdType();
-        Identification.IdTypeEnum type2 = id2.getIdType();
+        Identification.IdTypeEnum type1 = ac.getIdentification1().getIdType();
+        Identification.IdTypeEnum type2 = ac.getIdentification2().getIdType();
         if (type1 == Identification.IdTypeEnum.None || type1 == data.getIdType()) {
-            ac.identification1.setValue(data);
+            ac.setIdentification1(data);
         } else {
             if (type2 == Identification.IdTypeEnum.None || type2 == data.getIdType()) {
-                ac.identification2.setValue(data);
+                ac.setIdentification2(data);
             } else {
                 Log.i(TAG, "Discarded Basic ID message of type: " + data.getIdType().toString() +
                         ". Already have " + type1.toString() + " and " + type2.toString());
@@ -206,7 +381,13 @@ public class OpenDroneIdDataManager {
         data.setLocationTimestamp(raw.timestamp);
         data.setTimeAccuracy(raw.getTimeAccuracy());
         data.setDistance(raw.distance);
-        ac.location.setValue(data);
+        TrackFilter track = ac.getTrack();
+        if (track.update(data)) {
+            ac.getMotion().update(track);
+            ac.getTrackHistory().add(System.currentTimeMillis(), track.getLatitude(),
+                    track.getLongitude(), track.getAltitude());
+        }
+        ac.setLocation(data);
     }
 
     private void handleAuthentication(AircraftObject ac, OpenDroneIdParser.Message<OpenDroneIdParser.Authentication> message) {
@@ -223,7 +404,7 @@ public class OpenDroneIdDataManager {
             data.setAuthTimestamp(raw.authTimestamp);
         }
         data.setAuthData(raw.authData);
-        ac.authentication.setValue(ac.combineAuthentication(data));
+        ac.combineAuthentication(data);
     }
 
     private void handleSelfID(AircraftObject ac, OpenDroneIdParser.Message<OpenDroneIdParser.SelfID> message) {
@@ -234,7 +415,7 @@ public class OpenDroneIdDataManager {
 
         data.setDescriptionType(raw.descriptionType);
         data.setOperationDescription(raw.operationDescription);
-        ac.selfid.setValue(data);
+        ac.setSelfID(data);
     }
 
     private void handleSystem(AircraftObject ac, OpenDroneIdParser.Message<OpenDroneIdParser.SystemMsg> message) {
@@ -255,7 +436,7 @@ public class OpenDroneIdDataManager {
         data.setClassValue(raw.classValue);
         data.setOperatorAltitudeGeo(raw.getOperatorAltitudeGeo());
         data.setSystemTimestamp(raw.systemTimestamp);
-        ac.system.setValue(data);
+        ac.setSystem(data);
     }
 
     private void handleOperatorID(AircraftObject ac, OpenDroneIdParser.Message<OpenDroneIdParser.OperatorID> message) {
@@ -266,19 +447,21 @@ public class OpenDroneIdDataManager {
 
         data.setOperatorIdType(raw.operatorIdType);
         data.setOperatorId(raw.operatorId);
-        ac.operatorid.setValue(data);
+        ac.setOperatorID(data);
     }
 
-    private void handleMessagePack(AircraftObject ac, OpenDroneIdParser.Message<OpenDroneIdParser.MessagePack> message,
-                                   long timestamp, LogMessageEntry logMessageEntry, int msgCounter) {
+    private boolean handleMessagePack(AircraftObject ac, TransportLink link, OpenDroneIdParser.Message<OpenDroneIdParser.MessagePack> message,
+                                      long timestamp, LogMessageEntry logMessageEntry, int msgCounter) {
         OpenDroneIdParser.MessagePack raw = message.payload;
         if (raw == null)
-            return;
+            return false;
 
         if (raw.messageSize != Constants.MAX_MESSAGE_SIZE ||
             raw.messagesInPack <= 0 ||
             raw.messagesInPack > Constants.MAX_MESSAGES_IN_PACK)
-            return;
+            return false;
+
+        boolean applied = false;
 
         for (int i = 0; i < raw.messagesInPack; i++) {
             int offset = i*raw.messageSize;
@@ -286,9 +469,10 @@ public class OpenDroneIdDataManager {
             OpenDroneIdParser.Message<?> subMessage =
                     OpenDroneIdParser.parseMessage(data, 0, timestamp, logMessageEntry, receiverLocation, msgCounter);
             if (subMessage == null)
-                return;
+                return applied;
 
-            handleMessages(ac, subMessage);
+            applied |= handleFirstArrival(ac, link, subMessage, timestamp);
         }
+        return applied;
     }
 }
@@ -11,7 +11,9 @@ import androidx.annotation.NonNull;
 import android.util.Log;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import org.opendroneid.android.Constants;
 import org.opendroneid.android.log.LogMessageEntry;
 
@@ -419,11 +421,14 @@ public class OpenDroneIdParser {
     public static class Message<T extends Payload> implements Comparable<Message<T>> {
         final int msgCounter;
         final long timestamp;
+        // Of the raw message bytes, to recognize the same message received over several transports
+        final int contentHash;
         public final Header header;
         public final T payload;
 
-        Message(Header header, T payload, long timestamp, int msgCounter) {
+        Message(Header header, T payload, long timestamp, int msgCounter, int contentHash) {
             this.msgCounter = msgCounter;
+            this.contentHash = contentHash;
             this.header = header;
             this.payload = payload;
             this.timestamp = timestamp;
@@ -499,13 +504,37 @@ public class OpenDroneIdParser {
                 Log.w(TAG, "Received unhandled message type: id=" + type);
 
         }
-        Message<Payload> message = new Message<>(header, payloadObj, timestamp, msgCounter);
+        int contentHash = 1;
+        for (int i = offset; i < offset + Constants.MAX_MESSAGE_SIZE; i++)
+            contentHash = 31 * contentHash + payload[i];
+        Message<Payload> message = new Message<>(header, payloadObj, timestamp, msgCounter, contentHash);
         logMessageEntry.setMsgVersion(message.header.version);
         if (header.type != Type.MESSAGE_PACK)
             logMessageEntry.add(message);
         return message;
     }
 
+    /**
+     * The Basic ID messages in {@code message}, or in the pack it is, without logging them. Used
+     * to check the identity of a frame before applying it.
+     */
+    static List<BasicId> getBasicIds(Message<?> message) {
+        List<BasicId> basicIds = new ArrayList<>(1);
+        if (message.header.type == Type.BASIC_ID) {
+            basicIds.add((BasicId) message.payload);
+        } else if (message.header.type == Type.MESSAGE_PACK && message.payload != null) {
+            MessagePack pack = (MessagePack) message.payload;
+            if (pack.messageSize != Constants.MAX_MESSAGE_SIZE || pack.messagesInPack > Constants.MAX_MESSAGES_IN_PACK)
+                return basicIds;
+            for (int i = 0; i < pack.messagesInPack; i++) {
+                int offset = i * pack.messageSize;
+                if (((pack.messages[offset] & 0xF0) >> 4) == Type.BASIC_ID.id)
+                    basicIds.add(parseBasicId(ByteBuffer.wrap(pack.messages, offset + 1, pack.messageSize - 1)));
+            }
+        }
+        return basicIds;
+    }
+
     private static BasicId parseBasicId(ByteBuffer byteBuffer) {
         BasicId basicId = new BasicId();
 
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+import androidx.lifecycle.MutableLiveData;
+
+/**
+ * LiveData views of one aircraft for the screens that observe it. Created by
+ * {@link AircraftObject#getLiveData()} on first use; until then the ingest only updates the
+ * plain fields of the aircraft. Must be used on the main thread.
+ */
+public class AircraftLiveData {
+    final public MutableLiveData<Connection> connection = new MutableLiveData<>();
+    final public MutableLiveData<Identification> identification1 = new MutableLiveData<>();
+    final public MutableLiveData<Identification> identification2 = new MutableLiveData<>();
+    final public MutableLiveData<LocationData> location = new MutableLiveData<>();
+    final public MutableLiveData<AuthenticationData> authentication = new MutableLiveData<>();
+    final public MutableLiveData<SelfIdData> selfid = new MutableLiveData<>();
+    final public MutableLiveData<SystemData> system = new MutableLiveData<>();
+    final public MutableLiveData<OperatorIdData> operatorid = new MutableLiveData<>();
+
+    AircraftLiveData(AircraftObject aircraft) {
+        connection.setValue(aircraft.getConnection());
+        identification1.setValue(aircraft.getIdentification1());
+        identification2.setValue(aircraft.getIdentification2());
+        location.setValue(aircraft.getLocation());
+        authentication.setValue(aircraft.getAuthentication());
+        selfid.setValue(aircraft.getSelfID());
+        system.setValue(aircraft.getSystem());
+        operatorid.setValue(aircraft.getOperatorID());
+    }
+
+    boolean hasObservers() {
+        return connection.hasObservers() || identification1.hasObservers()
+                || identification2.hasObservers() || location.hasObservers()
+                || authentication.hasObservers() || selfid.hasObservers()
+                || system.hasObservers() || operatorid.hasObservers();
+    }
+}
@@ -6,38 +6,200 @@
  */
 package org.opendroneid.android.data;
 
-import androidx.lifecycle.MutableLiveData;
 import androidx.annotation.NonNull;
 
 import org.opendroneid.android.Constants;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State of one aircraft, updated in place by the data manager.
+ *
+ * Each section holds the latest message of its type, or a shared empty message until the first
+ * one arrives. Setting a section bumps its version and its CHANGED_* flag. The LiveData views
+ * are only created, and from then on kept up to date, once a screen asks for them.
+ */
 public class AircraftObject {
-    final public MutableLiveData<Connection> connection = new MutableLiveData<>();
-    final public MutableLiveData<Identification> identification1 = new MutableLiveData<>();
-    final public MutableLiveData<Identification> identification2 = new MutableLiveData<>();
-    final public MutableLiveData<Identification> id1Shadow = new MutableLiveData<>();
-    final public MutableLiveData<Identification> id2Shadow = new MutableLiveData<>();
-    final public MutableLiveData<LocationData> location = new MutableLiveData<>();
-    final public MutableLiveData<AuthenticationData> authentication = new MutableLiveData<>();
-    final public MutableLiveData<SelfIdData> selfid = new MutableLiveData<>();
-    final public MutableLiveData<SystemData> system = new MutableLiveData<>();
-    final public MutableLiveData<OperatorIdData> operatorid = new MutableLiveData<>();
+    // Sections of the state; also what changed since the aircraft list last took the changes,
+    // see takeChanges()
+    public static final int CHANGED_CONNECTION = 1;
+    public static final int CHANGED_LOCATION = 1 << 1;
+    public static final int CHANGED_IDENTIFICATION = 1 << 2;
+    public static final int CHANGED_AUTHENTICATION = 1 << 3;
+    public static final int CHANGED_SELF_ID = 1 << 4;
+    public static final int CHANGED_SYSTEM = 1 << 5;
+    public static final int CHANGED_OPERATOR_ID = 1 << 6;
+    private static final int SECTIONS = 7;
+    // Rotating MAC addresses add links; beyond this the least recently seen is dropped
+    static final int MAX_LINKS = 8;
+
+    // Placeholders until the first message of a type; never modified
+    private static final Identification NO_IDENTIFICATION = new Identification();
+    private static final LocationData NO_LOCATION = new LocationData();
+    private static final AuthenticationData NO_AUTHENTICATION = new AuthenticationData();
+    private static final SelfIdData NO_SELF_ID = new SelfIdData();
+    private static final SystemData NO_SYSTEM = new SystemData();
+    private static final OperatorIdData NO_OPERATOR_ID = new OperatorIdData();
 
     private final long macAddress;
+    private final Connection connection;
+    private Identification identification1 = NO_IDENTIFICATION;
+    private Identification identification2 = NO_IDENTIFICATION;
+    private LocationData location = NO_LOCATION;
+    private AuthenticationData authentication = NO_AUTHENTICATION;
+    private SelfIdData selfId = NO_SELF_ID;
+    private SystemData system = NO_SYSTEM;
+    private OperatorIdData operatorId = NO_OPERATOR_ID;
+    private final int[] versions = new int[SECTIONS];
+    private AircraftLiveData liveData;
+    private final List<TransportLink> links = new ArrayList<>(1);
+    private final ArrivalWindow arrivals = new ArrivalWindow();
+    private final TrackFilter track = new TrackFilter();
+    private final TrackBuffer trackHistory = new TrackBuffer();
+    private final DeadReckoning motion = new DeadReckoning();
+    private int changes;
+    private volatile AircraftSnapshot snapshot;
+    private Identification shownIdentification;
 
-    public AircraftObject(long macAddress) {
+    public AircraftObject(long macAddress, Connection connection) {
         this.macAddress = macAddress;
+        this.connection = connection;
     }
     public long getMacAddress() { return macAddress; }
 
-    public Connection getConnection() { return connection.getValue(); }
-    public Identification getIdentification1() { return identification1.getValue(); }
-    public Identification getIdentification2() { return identification2.getValue(); }
-    public LocationData getLocation() { return location.getValue(); }
-    public AuthenticationData getAuthentication() { return authentication.getValue(); }
-    public SelfIdData getSelfID() { return selfid.getValue(); }
-    public SystemData getSystem() { return system.getValue(); }
-    public OperatorIdData getOperatorID() { return operatorid.getValue(); }
+    /** The LiveData views of this aircraft, created on the first call. Main thread only. */
+    public AircraftLiveData getLiveData() {
+        if (liveData == null)
+            liveData = new AircraftLiveData(this);
+        return liveData;
+    }
+
+    /** Drop the LiveData views once nothing observes them, so the setters stop dispatching. */
+    public void releaseLiveData() {
+        if (liveData != null && !liveData.hasObservers())
+            liveData = null;
+    }
+
+    /** The transports this aircraft is received over, see {@link TransportLink}. */
+    public List<TransportLink> getLinks() { return links; }
+
+    /** The messages delivered recently, to apply each only once. */
+    public ArrivalWindow getArrivals() { return arrivals; }
+
+    public TransportLink getLink(long key) {
+        for (TransportLink link : links) {
+            if (link.key == key)
+                return link;
+        }
+        return null;
+    }
+
+    /** Add {@code link}; returns the link dropped to stay within MAX_LINKS, or null. */
+    public TransportLink addLink(TransportLink link) {
+        links.add(link);
+        if (links.size() <= MAX_LINKS)
+            return null;
+        TransportLink oldest = link;
+        for (TransportLink candidate : links) {
+            if (candidate.lastSeen < oldest.lastSeen)
+                oldest = candidate;
+        }
+        links.remove(oldest);
+        return oldest;
+    }
+
+    public void removeLink(TransportLink link) {
+        links.remove(link);
+    }
+
+    /** How often {@code section}, one of the CHANGED_* flags, has been set. */
+    public int getVersion(int section) { return versions[Integer.numberOfTrailingZeros(section)]; }
+
+    private void changed(int section) {
+        versions[Integer.numberOfTrailingZeros(section)]++;
+        changes |= section;
+    }
+
+    /** Smoothed position and velocity, updated with every Location message. */
+    public TrackFilter getTrack() { return track; }
+    /** Bounded, simplified history of the filtered positions, for map tracks and exports. */
+    public TrackBuffer getTrackHistory() { return trackHistory; }
+    /** Position extrapolated between messages, for animating the aircraft. */
+    public DeadReckoning getMotion() { return motion; }
+
+    /** The state as of the latest {@link WorldSnapshot}, null until the first one. Any thread. */
+    public AircraftSnapshot getSnapshot() { return snapshot; }
+    void setSnapshot(AircraftSnapshot snapshot) { this.snapshot = snapshot; }
+
+    /** The CHANGED_* flags set since the previous call, which clears them. */
+    public int takeChanges() {
+        int taken = changes;
+        changes = 0;
+        return taken;
+    }
+    /** The identification currently shown in the list, alternating between the two BasicIds. */
+    public Identification getShownIdentification() {
+        return shownIdentification != null ? shownIdentification : identification1;
+    }
+
+    public Connection getConnection() { return connection; }
+    public Identification getIdentification1() { return identification1; }
+    public Identification getIdentification2() { return identification2; }
+    public LocationData getLocation() { return location; }
+    public AuthenticationData getAuthentication() { return authentication; }
+    public SelfIdData getSelfID() { return selfId; }
+    public SystemData getSystem() { return system; }
+    public OperatorIdData getOperatorID() { return operatorId; }
+
+    /** Call after updating the Connection in place. */
+    public void connectionUpdated() {
+        changed(CHANGED_CONNECTION);
+        if (liveData != null)
+            liveData.connection.setValue(connection);
+    }
+
+    public void setIdentification1(Identification data) {
+        identification1 = data;
+        changed(CHANGED_IDENTIFICATION);
+        if (liveData != null)
+            liveData.identification1.setValue(data);
+    }
+
+    public void setIdentification2(Identification data) {
+        identification2 = data;
+        changed(CHANGED_IDENTIFICATION);
+        if (liveData != null)
+            liveData.identification2.setValue(data);
+    }
+
+    public void setLocation(LocationData data) {
+        location = data;
+        changed(CHANGED_LOCATION);
+        if (liveData != null)
+            liveData.location.setValue(data);
+    }
+
+    public void setSelfID(SelfIdData data) {
+        selfId = data;
+        changed(CHANGED_SELF_ID);
+        if (liveData != null)
+            liveData.selfid.setValue(data);
+    }
+
+    public void setSystem(SystemData data) {
+        system = data;
+        changed(CHANGED_SYSTEM);
+        if (liveData != null)
+            liveData.system.setValue(data);
+    }
+
+    public void setOperatorID(OperatorIdData data) {
+        operatorId = data;
+        changed(CHANGED_OPERATOR_ID);
+        if (liveData != null)
+            liveData.operatorid.setValue(data);
+    }
 
     // Non-zero authentication data pages do not contain the following fields. Save them for displaying
     private int authLastPageIndexSave;
@@ -45,13 +207,16 @@ public class AircraftObject {
     private long authTimestampSave;
 
     // Multiple authentication messages are possible, each transmitting a part of the
-    // authentication signature. Collect the data into authDataCombined.
-    private final byte[] authDataCombined = new byte[Constants.MAX_AUTH_DATA];
+    // authentication signature. Collect the data into authDataCombined, allocated with the
+    // first authentication message since most aircraft never send one.
+    private byte[] authDataCombined;
 
-    public AuthenticationData combineAuthentication(AuthenticationData newData) {
-        AuthenticationData currData = authentication.getValue();
-        if (currData == null)
+    public void combineAuthentication(AuthenticationData newData) {
+        AuthenticationData currData = authentication;
+        if (currData == NO_AUTHENTICATION) {
             currData = new AuthenticationData();
+            authDataCombined = new byte[Constants.MAX_AUTH_DATA];
+        }
 
         currData.setMsgCounter(newData.getMsgCounter());
         currData.setTimestamp(newData.getTimestamp());
@@ -75,7 +240,10 @@ public class AircraftObject {
         currData.setAuthLength(authLengthSave);
         currData.setAuthTimestamp(authTimestampSave);
         currData.setAuthData(authDataCombined);
-        return currData;
+        authentication = currData;
+        changed(CHANGED_AUTHENTICATION);
+        if (liveData != null)
+            liveData.authentication.setValue(currData);
     }
 
     private int idToShow = 0;
@@ -83,16 +251,17 @@ public class AircraftObject {
     // When two different BasicId messages have been received, use this function to force a periodic
     // swap between their uasId in the list view. It is assumed this is called once per second.
     // The change logic is slowed down to once per three seconds.
-    public void updateShadowBasicId() {
+    // Returns true when the identification to show changed.
+    public boolean updateShadowBasicId() {
+        Identification previous = shownIdentification;
         switch (idToShow) {
             case 0:
-                id1Shadow.setValue(identification1.getValue());
+                shownIdentification = identification1;
                 idToShow++;
                 break;
             case 3:
-                Identification id2 = identification2.getValue();
-                if (id2 != null && id2.getIdType() != Identification.IdTypeEnum.None)
-                    id2Shadow.setValue(identification2.getValue());
+                if (identification2.getIdType() != Identification.IdTypeEnum.None)
+                    shownIdentification = identification2;
                 idToShow++;
                 break;
             case 6:
@@ -101,6 +270,7 @@ public class AircraftObject {
             default:
                 idToShow++;
         }
+        return shownIdentification != previous;
     }
 
     @Override @NonNull
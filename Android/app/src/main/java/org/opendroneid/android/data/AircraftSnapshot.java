@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+/**
+ * Immutable state of one aircraft as of a {@link WorldSnapshot} version, safe to read from any
+ * thread.
+ *
+ * The message objects are replaced, never modified, when a new message arrives, so they are
+ * shared with the AircraftObject. The Connection and the filters are updated in place, so the
+ * values needed from them are copied. Authentication is left out: its pages are combined into
+ * the existing object.
+ */
+public final class AircraftSnapshot {
+    private final long macAddress;
+    private final long version;
+    private final Identification identification1;
+    private final Identification identification2;
+    private final LocationData location;
+    private final SelfIdData selfId;
+    private final SystemData system;
+    private final OperatorIdData operatorId;
+    private final int rssi;
+    private final String transportType;
+    private final long firstSeen;
+    private final long lastSeen;
+    private final boolean trackValid;
+    private final double trackLatitude;
+    private final double trackLongitude;
+    private final double velocityEast;
+    private final double velocityNorth;
+    private final DeadReckoning motion;
+
+    AircraftSnapshot(AircraftObject aircraft, long version) {
+        this.macAddress = aircraft.getMacAddress();
+        this.version = version;
+        identification1 = aircraft.getIdentification1();
+        identification2 = aircraft.getIdentification2();
+        location = aircraft.getLocation();
+        selfId = aircraft.getSelfID();
+        system = aircraft.getSystem();
+        operatorId = aircraft.getOperatorID();
+        Connection connection = aircraft.getConnection();
+        rssi = connection != null ? connection.rssi : 0;
+        transportType = connection != null ? connection.transportType : null;
+        firstSeen = connection != null ? connection.firstSeen : 0;
+        lastSeen = connection != null ? connection.lastSeen : 0;
+        TrackFilter track = aircraft.getTrack();
+        trackValid = track.isValid();
+        trackLatitude = track.getLatitude();
+        trackLongitude = track.getLongitude();
+        velocityEast = track.getVelocityEast();
+        velocityNorth = track.getVelocityNorth();
+        motion = aircraft.getMotion().isValid() ? new DeadReckoning(aircraft.getMotion()) : null;
+    }
+
+    public long getMacAddress() { return macAddress; }
+    /** The world version in which this aircraft last changed. */
+    public long getVersion() { return version; }
+
+    public Identification getIdentification1() { return identification1; }
+    public Identification getIdentification2() { return identification2; }
+    public LocationData getLocation() { return location; }
+    public SelfIdData getSelfID() { return selfId; }
+    public SystemData getSystem() { return system; }
+    public OperatorIdData getOperatorID() { return operatorId; }
+
+    public int getRssi() { return rssi; }
+    public String getTransportType() { return transportType; }
+    public long getFirstSeen() { return firstSeen; }
+    public long getLastSeen() { return lastSeen; }
+
+    public boolean isTrackValid() { return trackValid; }
+    public double getTrackLatitude() { return trackLatitude; }
+    public double getTrackLongitude() { return trackLongitude; }
+    public double getVelocityEast() { return velocityEast; }
+    public double getVelocityNorth() { return velocityNorth; }
+    /** A frozen copy of the dead reckoning, or null if the position is not known yet. */
+    public DeadReckoning getMotion() { return motion; }
+}
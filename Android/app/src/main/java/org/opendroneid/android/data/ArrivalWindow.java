@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+/**
+ * The messages one aircraft delivered during the last {@link #WINDOW_NANOS}, to apply a message
+ * sent over several transports, or repeated on one, only once.
+ *
+ * Messages are compared by type and a hash of their 25 bytes. The first arrival wins; a later
+ * copy from another link only adds to the arrival statistics of the links. The entries live in a
+ * small ring of primitive arrays, so checking a message allocates nothing.
+ */
+public class ArrivalWindow {
+    static final long WINDOW_NANOS = 2_000_000_000L;
+    // Enough for the distinct messages a drone sends within the window
+    private static final int SIZE = 32;
+
+    private final int[] types = new int[SIZE];
+    private final int[] hashes = new int[SIZE];
+    private final long[] times = new long[SIZE];
+    private final TransportLink[] links = new TransportLink[SIZE];
+    private int next;
+
+    /**
+     * Whether the message arrived before within the window. If not, it is recorded as a first
+     * arrival on {@code link}.
+     */
+    public boolean isDuplicate(int type, int hash, long nanos, TransportLink link) {
+        for (int i = 0; i < SIZE; i++) {
+            TransportLink first = links[i];
+            if (first == null || types[i] != type || hashes[i] != hash || nanos - times[i] >= WINDOW_NANOS)
+                continue;
+            if (first != link) {
+                link.lateArrivals++;
+                link.lateNanos += Math.max(0, nanos - times[i]);
+            }
+            return true;
+        }
+        types[next] = type;
+        hashes[next] = hash;
+        times[next] = nanos;
+        links[next] = link;
+        next = (next + 1) % SIZE;
+        link.firstArrivals++;
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+/**
+ * Moves an aircraft between its Location messages, which arrive about once per second, so the
+ * radar and the maps can animate it every frame.
+ *
+ * On each fix the filtered position and velocity of the {@link TrackFilter} are turned into
+ * degrees and degrees per second, so a frame only costs a few multiplies. The position is
+ * extrapolated for at most {@link #MAX_EXTRAPOLATION_NANOS} and then held. Instead of jumping to
+ * a new fix, the gap between the shown and the new position is faded out over
+ * {@link #BLEND_NANOS}; gaps larger than {@link #MAX_BLEND_METERS} (e.g. after the filter
+ * restarted) are not blended. Times are elapsedRealtimeNanos, the clock of the receive times.
+ */
+public class DeadReckoning {
+    static final long MAX_EXTRAPOLATION_NANOS = 2_000_000_000L;
+    static final long BLEND_NANOS = 500_000_000L;
+    static final double MAX_BLEND_METERS = 50;
+    // Below this speed the aircraft is drawn standing still
+    private static final double MIN_SPEED = 0.2;
+    private static final double METERS_PER_DEGREE_LAT = 110_540;
+    private static final double METERS_PER_DEGREE_LON = 111_320;
+
+    private boolean valid;
+    private boolean moving;
+    private long fixNanos;
+    private double latitude;
+    private double longitude;
+    private double latitudePerSecond;
+    private double longitudePerSecond;
+    // The shown position minus the fix at the time of the fix, faded out over BLEND_NANOS
+    private double offsetLatitude;
+    private double offsetLongitude;
+
+    public DeadReckoning() {
+    }
+
+    /** A copy that can be handed to another thread as long as neither is updated afterwards. */
+    public DeadReckoning(DeadReckoning other) {
+        valid = other.valid;
+        moving = other.moving;
+        fixNanos = other.fixNanos;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        latitudePerSecond = other.latitudePerSecond;
+        longitudePerSecond = other.longitudePerSecond;
+        offsetLatitude = other.offsetLatitude;
+        offsetLongitude = other.offsetLongitude;
+    }
+
+    /** Take the latest state of {@code track}; call after every {@link TrackFilter#update}. */
+    public void update(TrackFilter track) {
+        if (!track.isValid()) {
+            valid = false;
+            return;
+        }
+        long timestamp = track.getTimestampNanos();
+        if (valid && timestamp == fixNanos)
+            return;
+        double newLatitude = track.getLatitude();
+        double newLongitude = track.getLongitude();
+        double metersPerDegreeLon = METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(newLatitude));
+        // The shown position includes what is left of the previous blend, so take it first
+        boolean blendFromShown = valid && timestamp > fixNanos;
+        double shownLatitude = blendFromShown ? getLatitude(timestamp) : 0;
+        double shownLongitude = blendFromShown ? getLongitude(timestamp) : 0;
+        offsetLatitude = 0;
+        offsetLongitude = 0;
+        if (blendFromShown) {
+            double dLatitude = shownLatitude - newLatitude;
+            double dLongitude = shownLongitude - newLongitude;
+            double meters = Math.hypot(dLatitude * METERS_PER_DEGREE_LAT, dLongitude * metersPerDegreeLon);
+            if (meters <= MAX_BLEND_METERS) {
+                offsetLatitude = dLatitude;
+                offsetLongitude = dLongitude;
+            }
+        }
+        latitude = newLatitude;
+        longitude = newLongitude;
+        moving = track.getSpeedHorizontal() >= MIN_SPEED;
+        latitudePerSecond = moving ? track.getVelocityNorth() / METERS_PER_DEGREE_LAT : 0;
+        longitudePerSecond = moving ? track.getVelocityEast() / metersPerDegreeLon : 0;
+        fixNanos = timestamp;
+        valid = true;
+    }
+
+    public boolean isValid() { return valid; }
+
+    /** Whether the position still changes after {@code nowNanos}, i.e. whether to keep animating. */
+    public boolean isAnimating(long nowNanos) {
+        if (!valid)
+            return false;
+        long elapsed = nowNanos - fixNanos;
+        return (moving && elapsed < MAX_EXTRAPOLATION_NANOS)
+                || ((offsetLatitude != 0 || offsetLongitude != 0) && elapsed < BLEND_NANOS);
+    }
+
+    public double getLatitude(long nowNanos) {
+        return latitude + latitudePerSecond * extrapolation(nowNanos) + offsetLatitude * blend(nowNanos);
+    }
+
+    public double getLongitude(long nowNanos) {
+        return longitude + longitudePerSecond * extrapolation(nowNanos) + offsetLongitude * blend(nowNanos);
+    }
+
+    /** Seconds to extrapolate, limited to MAX_EXTRAPOLATION_NANOS. */
+    private double extrapolation(long nowNanos) {
+        long elapsed = Math.max(0, Math.min(MAX_EXTRAPOLATION_NANOS, nowNanos - fixNanos));
+        return elapsed / 1e9;
+    }
+
+    /** Weight of the offset, from 1 at the fix down to 0 after BLEND_NANOS. */
+    private double blend(long nowNanos) {
+        long elapsed = nowNanos - fixNanos;
+        return elapsed >= BLEND_NANOS ? 0 : 1 - Math.max(0, elapsed) / (double) BLEND_NANOS;
+    }
+}
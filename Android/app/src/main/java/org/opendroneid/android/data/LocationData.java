@@ -222,6 +222,24 @@ public class LocationData extends MessageData {
             default: return res.getString(R.string.unknown);
         }
     }
+    /** The accuracy bound in meters, or NaN if unknown. */
+    public double getHorizontalAccuracyMeters() {
+        switch(horizontalAccuracy) {
+            case kilometers_18_52: return 18520;
+            case kilometers_7_408: return 7408;
+            case kilometers_3_704: return 3704;
+            case kilometers_1_852: return 1852;
+            case meters_926: return 926;
+            case meters_555_6: return 555.6;
+            case meters_185_2: return 185.2;
+            case meters_92_6: return 92.6;
+            case meters_30: return 30;
+            case meters_10: return 10;
+            case meters_3: return 3;
+            case meters_1: return 1;
+            default: return Double.NaN;
+        }
+    }
     public void setHorizontalAccuracy(int horizontalAccuracy) {
         switch(horizontalAccuracy) {
             case 1: this.horizontalAccuracy = HorizontalAccuracyEnum.kilometers_18_52; break;
@@ -272,6 +290,18 @@ public class LocationData extends MessageData {
             default: return VerticalAccuracyEnum.Unknown;
         }
     }
+    /** The accuracy bound in meters, or NaN if unknown. */
+    public static double getVerticalAccuracyMeters(VerticalAccuracyEnum accuracy) {
+        switch(accuracy) {
+            case meters_150: return 150;
+            case meters_45: return 45;
+            case meters_25: return 25;
+            case meters_10: return 10;
+            case meters_3: return 3;
+            case meters_1: return 1;
+            default: return Double.NaN;
+        }
+    }
     public void setVerticalAccuracy(int verticalAccuracy) {
         this.verticalAccuracy = intToVerticalAccuracy(verticalAccuracy);
     }
@@ -297,6 +327,16 @@ public class LocationData extends MessageData {
             default: return res.getString(R.string.unknown);
         }
     }
+    /** The accuracy bound in m/s, or NaN if unknown. */
+    public double getSpeedAccuracyMetersPerSecond() {
+        switch(speedAccuracy) {
+            case meter_per_second_10: return 10;
+            case meter_per_second_3: return 3;
+            case meter_per_second_1: return 1;
+            case meter_per_second_0_3: return 0.3;
+            default: return Double.NaN;
+        }
+    }
     public void setSpeedAccuracy(int speedAccuracy) {
         switch(speedAccuracy) {
             case 1: this.speedAccuracy = SpeedAccuracyEnum.meter_per_second_10; break;
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+import java.util.Arrays;
+
+/**
+ * Bounded flight history of one aircraft, stored as parallel primitive arrays in a ring buffer.
+ * Positions are kept in 1e-7 degree units as on the wire.
+ *
+ * Points are simplified while they arrive (an opening window variant of Douglas-Peucker): as long
+ * as all points since the last kept point stay within {@link #TOLERANCE_METERS} of the straight
+ * line to the newest point, only the newest one is kept and it replaces the previous tail. A
+ * straight leg therefore costs two points however long it is. Once the buffer is full the whole
+ * history is simplified again (Douglas-Peucker) with a coarser tolerance to free a quarter of it,
+ * so long flights keep their shape at a lower detail instead of losing their start.
+ *
+ * Points are addressed by a sequence number that keeps counting across the ring, so a reader can
+ * remember how far it got and later read only what was added; {@link #getTailVersion()} changes
+ * when the newest point was replaced and {@link #getGeneration()} when a simplification pass
+ * renumbered the points. Not thread safe; used on the main thread.
+ */
+public class TrackBuffer {
+    public static final int DEFAULT_CAPACITY = 512;
+    static final double TOLERANCE_METERS = 3;
+    private static final int WINDOW_SIZE = 32;
+    private static final long MAX_INTERVAL_MS = 30_000;
+    private static final int MAX_COMPACT_PASSES = 4;
+    private static final double METERS_PER_E7_LAT = 110_540 / 1e7;
+    private static final double METERS_PER_E7_LON = 111_320 / 1e7;
+
+    private final int capacity;
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final float[] altitudes;
+    private final long[] times;
+    private long first; // Sequence number of the oldest point
+    private long end;   // Sequence number after the newest point
+    private int tailVersion;
+    private int generation;
+    // Scratch space of the simplification pass, allocated on first use
+    private boolean[] keep;
+    private int[] stack;
+
+    // Raw points since the last fixed point, the window the tail is checked against
+    private final int[] windowLatitudes = new int[WINDOW_SIZE];
+    private final int[] windowLongitudes = new int[WINDOW_SIZE];
+    private int windowSize;
+    private double metersPerE7Lon;
+
+    public TrackBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TrackBuffer(int capacity) {
+        this.capacity = capacity;
+        latitudes = new int[capacity];
+        longitudes = new int[capacity];
+        altitudes = new float[capacity];
+        times = new long[capacity];
+    }
+
+    /** Add a position; {@code altitude} may be NaN. */
+    public void add(long timeMs, double latitude, double longitude, double altitude) {
+        int lat = (int) Math.round(latitude * 1e7);
+        int lon = (int) Math.round(longitude * 1e7);
+        if (end - first >= 2 && windowSize < WINDOW_SIZE
+                && timeMs - getTime(end - 2) < MAX_INTERVAL_MS
+                && windowFits(end - 2, lat, lon)) {
+            // The tail is redundant, move it to the new point
+            set(end - 1, timeMs, lat, lon, altitude);
+            tailVersion++;
+        } else {
+            if (end - first >= 1) {
+                // The current tail becomes fixed and starts the next window
+                windowSize = 0;
+                windowLatitudes[windowSize] = latitudes[slot(end - 1)];
+                windowLongitudes[windowSize++] = longitudes[slot(end - 1)];
+            } else {
+                metersPerE7Lon = METERS_PER_E7_LON * Math.cos(Math.toRadians(latitude));
+            }
+            if (end - first == capacity) {
+                compact();
+            }
+            set(end++, timeMs, lat, lon, altitude);
+        }
+        windowLatitudes[windowSize] = lat;
+        windowLongitudes[windowSize++] = lon; // A full window forces the next point to be appended
+    }
+
+    /** Whether all window points lie within the tolerance of the segment from {@code anchor} to the new point. */
+    private boolean windowFits(long anchor, int lat, int lon) {
+        int anchorLat = latitudes[slot(anchor)];
+        int anchorLon = longitudes[slot(anchor)];
+        double toleranceSquared = TOLERANCE_METERS * TOLERANCE_METERS;
+        for (int i = 1; i < windowSize; i++) {
+            if (distanceSquared(windowLatitudes[i], windowLongitudes[i], anchorLat, anchorLon, lat, lon) > toleranceSquared)
+                return false;
+        }
+        return true;
+    }
+
+    /** Squared distance in meters of a point from the segment between two others. */
+    private double distanceSquared(int lat, int lon, int fromLat, int fromLon, int toLat, int toLon) {
+        double dx = (toLon - fromLon) * metersPerE7Lon;
+        double dy = (toLat - fromLat) * METERS_PER_E7_LAT;
+        double px = (lon - fromLon) * metersPerE7Lon;
+        double py = (lat - fromLat) * METERS_PER_E7_LAT;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? (px * dx + py * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * Free a quarter of the buffer by simplifying the history, doubling the tolerance until enough
+     * points go. If even the coarsest pass keeps too many, the oldest quarter is dropped instead.
+     */
+    private void compact() {
+        int target = capacity * 3 / 4;
+        double tolerance = TOLERANCE_METERS;
+        int kept = size();
+        for (int pass = 0; pass < MAX_COMPACT_PASSES && kept > target; pass++) {
+            tolerance *= 2;
+            kept = markKept(tolerance);
+        }
+        if (kept > target) {
+            first += size() - target;
+            return;
+        }
+        long write = first;
+        for (long read = first; read < end; read++) {
+            if (!keep[(int) (read - first)])
+                continue;
+            if (write != read) {
+                int from = slot(read);
+                int to = slot(write);
+                latitudes[to] = latitudes[from];
+                longitudes[to] = longitudes[from];
+                altitudes[to] = altitudes[from];
+                times[to] = times[from];
+            }
+            write++;
+        }
+        end = write;
+        generation++;
+    }
+
+    /** Douglas-Peucker over the whole buffer; marks the points to keep and returns their count. */
+    private int markKept(double tolerance) {
+        int count = size();
+        if (keep == null) {
+            keep = new boolean[capacity];
+            stack = new int[2 * capacity];
+        }
+        Arrays.fill(keep, 0, count, false);
+        keep[0] = true;
+        keep[count - 1] = true;
+        int kept = 2;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        double toleranceSquared = tolerance * tolerance;
+        while (top > 0) {
+            int to = stack[--top];
+            int from = stack[--top];
+            int fromSlot = slot(first + from);
+            int toSlot = slot(first + to);
+            int farthest = -1;
+            double farthestDistance = toleranceSquared;
+            for (int i = from + 1; i < to; i++) {
+                int slot = slot(first + i);
+                double distance = distanceSquared(latitudes[slot], longitudes[slot],
+                        latitudes[fromSlot], longitudes[fromSlot], latitudes[toSlot], longitudes[toSlot]);
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                kept++;
+                stack[top++] = from;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = to;
+            }
+        }
+        return kept;
+    }
+
+    private void set(long sequence, long timeMs, int lat, int lon, double altitude) {
+        int slot = slot(sequence);
+        latitudes[slot] = lat;
+        longitudes[slot] = lon;
+        altitudes[slot] = (float) altitude;
+        times[slot] = timeMs;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    public void clear() {
+        first = end;
+        windowSize = 0;
+    }
+
+    public int size() { return (int) (end - first); }
+    public int getCapacity() { return capacity; }
+    /** Sequence number of the oldest point still in the buffer. */
+    public long getFirstSequence() { return first; }
+    /** Sequence number the next appended point will get. */
+    public long getEndSequence() { return end; }
+    /** Changes every time the newest point is moved instead of a new one appended. */
+    public int getTailVersion() { return tailVersion; }
+    /** Changes when a simplification pass renumbered the points; readers have to start over. */
+    public int getGeneration() { return generation; }
+
+    public int getLatitudeE7(long sequence) { return latitudes[slot(sequence)]; }
+    public int getLongitudeE7(long sequence) { return longitudes[slot(sequence)]; }
+    public double getLatitude(long sequence) { return latitudes[slot(sequence)] / 1e7; }
+    public double getLongitude(long sequence) { return longitudes[slot(sequence)] / 1e7; }
+    /** Altitude in meters, NaN if unknown. */
+    public float getAltitude(long sequence) { return altitudes[slot(sequence)]; }
+    public long getTime(long sequence) { return times[slot(sequence)]; }
+
+    /** Sequence number of the first point at or after {@code timeMs}, or the end sequence if none. */
+    public long findFirstAtOrAfter(long timeMs) {
+        long low = first;
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (getTime(mid) < timeMs)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+/**
+ * Constant velocity Kalman filter over the positions reported by one aircraft.
+ *
+ * Each axis (east, north, up, in meters from the first fix) is filtered independently with a
+ * [position, velocity] state. Position measurements are weighted by the reported horizontal and
+ * vertical accuracy, the reported speed and direction are used as a velocity measurement.
+ * Updates only touch primitive fields, so feeding every Location message does not allocate.
+ *
+ * Not thread safe; updated and read on the main thread like the rest of {@link AircraftObject}.
+ */
+public class TrackFilter {
+    private static final double METERS_PER_DEGREE_LAT = 110_540;
+    private static final double METERS_PER_DEGREE_LON = 111_320;
+    // Process noise, as the variance of the acceleration in (m/s^2)^2
+    private static final double HORIZONTAL_ACCELERATION_VARIANCE = 4;
+    private static final double VERTICAL_ACCELERATION_VARIANCE = 1;
+    // Used when the accuracy is not reported
+    private static final double DEFAULT_HORIZONTAL_SIGMA = 50;
+    private static final double DEFAULT_VERTICAL_SIGMA = 25;
+    private static final double DEFAULT_SPEED_SIGMA = 3;
+    private static final long RESET_AFTER_NANOS = 30_000_000_000L;
+
+    private static class Axis {
+        double position;
+        double velocity;
+        double p00, p01, p11;
+
+        void reset(double measuredPosition, double variance) {
+            position = measuredPosition;
+            velocity = 0;
+            p00 = variance;
+            p01 = 0;
+            p11 = 100; // Unknown velocity, (10 m/s)^2
+        }
+
+        void predict(double dt, double accelerationVariance) {
+            position += velocity * dt;
+            double dt2 = dt * dt;
+            p00 += dt * (2 * p01 + dt * p11) + accelerationVariance * dt2 * dt2 / 4;
+            p01 += dt * p11 + accelerationVariance * dt2 * dt / 2;
+            p11 += accelerationVariance * dt2;
+        }
+
+        void updatePosition(double measured, double variance) {
+            double s = p00 + variance;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            double innovation = measured - position;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p11 -= k1 * p01;
+            p00 *= 1 - k0;
+            p01 *= 1 - k0;
+        }
+
+        void updateVelocity(double measured, double variance) {
+            double s = p11 + variance;
+            double k0 = p01 / s;
+            double k1 = p11 / s;
+            double innovation = measured - velocity;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p00 -= k0 * p01;
+            p01 *= 1 - k1;
+            p11 *= 1 - k1;
+        }
+    }
+
+    private final Axis east = new Axis();
+    private final Axis north = new Axis();
+    private final Axis up = new Axis();
+    private boolean valid;
+    private boolean hasAltitude;
+    private long lastTimestampNanos;
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLon;
+
+    /**
+     * Feed a Location message. Messages without a valid position are ignored, and so are
+     * messages older than the last one: an aircraft heard over several transports delivers
+     * them slightly out of order.
+     *
+     * @return whether the message was used
+     */
+    public boolean update(LocationData location) {
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+        if (latitude == 0 && longitude == 0)
+            return false;
+        long timestamp = location.getTimestamp();
+        if (valid && timestamp < lastTimestampNanos)
+            return false;
+        double altitude = location.getAltitudeGeodetic();
+        double verticalSigma = LocationData.getVerticalAccuracyMeters(location.getVerticalAccuracy());
+        if (altitude == -1000) {
+            altitude = location.getAltitudePressure();
+            verticalSigma = LocationData.getVerticalAccuracyMeters(location.getBaroAccuracy());
+        }
+        boolean altitudeValid = altitude != -1000;
+        double horizontalVariance = variance(location.getHorizontalAccuracyMeters(), DEFAULT_HORIZONTAL_SIGMA);
+        double verticalVariance = variance(verticalSigma, DEFAULT_VERTICAL_SIGMA);
+
+        if (!valid || timestamp - lastTimestampNanos > RESET_AFTER_NANOS) {
+            originLatitude = latitude;
+            originLongitude = longitude;
+            metersPerDegreeLon = METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(latitude));
+            east.reset(0, horizontalVariance);
+            north.reset(0, horizontalVariance);
+            hasAltitude = altitudeValid;
+            if (altitudeValid)
+                up.reset(altitude, verticalVariance);
+            valid = true;
+        } else {
+            double dt = (timestamp - lastTimestampNanos) / 1e9;
+            east.predict(dt, HORIZONTAL_ACCELERATION_VARIANCE);
+            north.predict(dt, HORIZONTAL_ACCELERATION_VARIANCE);
+            east.updatePosition((longitude - originLongitude) * metersPerDegreeLon, horizontalVariance);
+            north.updatePosition((latitude - originLatitude) * METERS_PER_DEGREE_LAT, horizontalVariance);
+            if (altitudeValid) {
+                if (hasAltitude) {
+                    up.predict(dt, VERTICAL_ACCELERATION_VARIANCE);
+                    up.updatePosition(altitude, verticalVariance);
+                } else {
+                    up.reset(altitude, verticalVariance);
+                    hasAltitude = true;
+                }
+            }
+        }
+        lastTimestampNanos = timestamp;
+
+        double speed = location.getSpeedHorizontal();
+        double direction = location.getDirection();
+        if (speed != 255 && direction <= 360) {
+            double speedVariance = variance(location.getSpeedAccuracyMetersPerSecond(), DEFAULT_SPEED_SIGMA);
+            double radians = Math.toRadians(direction);
+            east.updateVelocity(speed * Math.sin(radians), speedVariance);
+            north.updateVelocity(speed * Math.cos(radians), speedVariance);
+        }
+        double speedVertical = location.getSpeedVertical();
+        if (hasAltitude && altitudeValid && speedVertical != 63)
+            up.updateVelocity(speedVertical, variance(location.getSpeedAccuracyMetersPerSecond(), DEFAULT_SPEED_SIGMA));
+        return true;
+    }
+
+    // The reported accuracy is a 95% bound, use half of it as the standard deviation
+    private static double variance(double accuracyBound, double defaultSigma) {
+        double sigma = Double.isNaN(accuracyBound) ? defaultSigma : Math.max(0.5, accuracyBound / 2);
+        return sigma * sigma;
+    }
+
+    public boolean isValid() { return valid; }
+    /** Receive time (elapsedRealtimeNanos) of the last message in the filter. */
+    public long getTimestampNanos() { return lastTimestampNanos; }
+
+    public double getLatitude() { return originLatitude + north.position / METERS_PER_DEGREE_LAT; }
+    public double getLongitude() { return originLongitude + east.position / metersPerDegreeLon; }
+    /** Filtered altitude in meters, or NaN if no altitude was reported. */
+    public double getAltitude() { return hasAltitude ? up.position : Double.NaN; }
+
+    public double getVelocityEast() { return east.velocity; }
+    public double getVelocityNorth() { return north.velocity; }
+    public double getVelocityUp() { return hasAltitude ? up.velocity : Double.NaN; }
+    public double getSpeedHorizontal() { return Math.hypot(east.velocity, north.velocity); }
+    /** Course over ground in degrees clockwise from north. */
+    public double getDirection() {
+        double degrees = Math.toDegrees(Math.atan2(east.velocity, north.velocity));
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+    /** One standard deviation of the horizontal position, in meters. */
+    public double getHorizontalSigma() { return Math.sqrt(Math.max(east.p00, north.p00)); }
+}
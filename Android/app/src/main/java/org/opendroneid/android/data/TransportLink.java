@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+/**
+ * One way an aircraft is received: a Bluetooth MAC address, a Wi-Fi NaN peer or a Wi-Fi beacon
+ * BSSID. An aircraft heard over several transports, or rotating its MAC address, has one link
+ * per key. Updated in place by the data manager.
+ */
+public class TransportLink {
+    public final long key;
+    public final String address;
+    public String transportType;
+    public int rssi;
+    public long firstSeen;
+    public long lastSeen;
+    public int messages;
+    // Against the other links of the aircraft, see ArrivalWindow: how often this link delivered
+    // a message first, how often a copy came after another link and how late in total
+    public int firstArrivals;
+    public int lateArrivals;
+    public long lateNanos;
+    // Joined to the aircraft on the operator ID alone, until a UAS ID confirms or refutes it
+    public boolean provisional;
+
+    public TransportLink(long key, String address, long firstSeen) {
+        this.key = key;
+        this.address = address;
+        this.firstSeen = firstSeen;
+    }
+
+    /** The mean delay behind the first arrival of the messages this link delivered late. */
+    public double getMeanDelayMillis() {
+        return lateArrivals > 0 ? lateNanos / 1e6 / lateArrivals : 0;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.data;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, versioned view of all aircraft, published by the data manager after every ingest.
+ *
+ * The aircraft are spread over a fixed number of buckets by MAC address. A new version copies
+ * the bucket table and only the buckets of the aircraft that changed; the others are shared with
+ * the previous version, so publishing does not grow with the number of aircraft. A reader on any
+ * thread holds a coherent state without locks for as long as it keeps the reference. Every
+ * aircraft snapshot carries the version it changed in, which makes {@link #getChangedSince} a
+ * plain comparison. Removing aircraft starts a new reset version.
+ */
+public final class WorldSnapshot {
+    private static final int BUCKETS = 64;
+    private static final AircraftSnapshot[] NO_AIRCRAFT = new AircraftSnapshot[0];
+    public static final WorldSnapshot EMPTY = new WorldSnapshot(0, 0, emptyBuckets(), 0);
+
+    private final long version;
+    private final long resetVersion;
+    // Never modified once published; a new version copies the buckets it changes
+    private final AircraftSnapshot[][] buckets;
+    private final int size;
+    private final Collection<AircraftSnapshot> aircraft = new AbstractCollection<AircraftSnapshot>() {
+        @Override
+        public Iterator<AircraftSnapshot> iterator() {
+            return new AircraftIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
+
+    private WorldSnapshot(long version, long resetVersion, AircraftSnapshot[][] buckets, int size) {
+        this.version = version;
+        this.resetVersion = resetVersion;
+        this.buckets = buckets;
+        this.size = size;
+    }
+
+    private static AircraftSnapshot[][] emptyBuckets() {
+        AircraftSnapshot[][] buckets = new AircraftSnapshot[BUCKETS][];
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = NO_AIRCRAFT;
+        return buckets;
+    }
+
+    private static int bucket(long macAddress) {
+        int hash = (int) (macAddress ^ (macAddress >>> 32));
+        return (hash ^ (hash >>> 16)) & (BUCKETS - 1);
+    }
+
+    /**
+     * Take the snapshot of {@code object} that the next version will hold. Done before anyone is
+     * told about the update, so {@link AircraftObject#getSnapshot()} is never behind it.
+     */
+    public void refresh(AircraftObject object) {
+        object.setSnapshot(new AircraftSnapshot(object, version + 1));
+    }
+
+    /**
+     * The next version, without the aircraft in {@code removed} and with the snapshots of
+     * {@code changed}, which must all have been refreshed.
+     */
+    public WorldSnapshot with(Collection<Long> removed, Collection<AircraftObject> changed) {
+        AircraftSnapshot[][] copy = buckets.clone();
+        boolean[] copied = new boolean[BUCKETS];
+        int newSize = size;
+        for (Long macAddress : removed) {
+            int index = bucket(macAddress);
+            AircraftSnapshot[] entries = copy[index];
+            int position = find(entries, macAddress);
+            if (position < 0)
+                continue;
+            AircraftSnapshot[] smaller = new AircraftSnapshot[entries.length - 1];
+            System.arraycopy(entries, 0, smaller, 0, position);
+            System.arraycopy(entries, position + 1, smaller, position, smaller.length - position);
+            copy[index] = smaller;
+            copied[index] = true;
+            newSize--;
+        }
+        for (AircraftObject object : changed) {
+            AircraftSnapshot snapshot = object.getSnapshot();
+            int index = bucket(snapshot.getMacAddress());
+            AircraftSnapshot[] entries = copy[index];
+            int position = find(entries, snapshot.getMacAddress());
+            if (position < 0) {
+                AircraftSnapshot[] larger = new AircraftSnapshot[entries.length + 1];
+                System.arraycopy(entries, 0, larger, 0, entries.length);
+                larger[entries.length] = snapshot;
+                copy[index] = larger;
+                copied[index] = true;
+                newSize++;
+            } else {
+                if (!copied[index]) {
+                    entries = entries.clone();
+                    copy[index] = entries;
+                    copied[index] = true;
+                }
+                entries[position] = snapshot;
+            }
+        }
+        long next = version + 1;
+        return new WorldSnapshot(next, removed.isEmpty() ? resetVersion : next, copy, newSize);
+    }
+
+    /** The next version without any aircraft. */
+    public WorldSnapshot cleared() {
+        return new WorldSnapshot(version + 1, version + 1, emptyBuckets(), 0);
+    }
+
+    private static int find(AircraftSnapshot[] entries, long macAddress) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].getMacAddress() == macAddress)
+                return i;
+        }
+        return -1;
+    }
+
+    public long getVersion() { return version; }
+    public int size() { return size; }
+    public Collection<AircraftSnapshot> getAircraft() { return aircraft; }
+
+    public AircraftSnapshot get(long macAddress) {
+        AircraftSnapshot[] entries = buckets[bucket(macAddress)];
+        int position = find(entries, macAddress);
+        return position >= 0 ? entries[position] : null;
+    }
+
+    /**
+     * Whether aircraft were removed after {@code version}. A reader that saw that version then
+     * has to start over from {@link #getAircraft()}, as removals are not listed.
+     */
+    public boolean isResetSince(long version) { return version < resetVersion; }
+
+    /** The aircraft added or changed after {@code version}. */
+    public List<AircraftSnapshot> getChangedSince(long version) {
+        List<AircraftSnapshot> changed = new ArrayList<>();
+        if (version >= this.version)
+            return changed;
+        for (AircraftSnapshot[] entries : buckets) {
+            for (AircraftSnapshot snapshot : entries) {
+                if (snapshot.getVersion() > version)
+                    changed.add(snapshot);
+            }
+        }
+        return changed;
+    }
+
+    private final class AircraftIterator implements Iterator<AircraftSnapshot> {
+        private int bucket;
+        private int position;
+
+        @Override
+        public boolean hasNext() {
+            while (bucket < BUCKETS && position >= buckets[bucket].length) {
+                bucket++;
+                position = 0;
+            }
+            return bucket < BUCKETS;
+        }
+
+        @Override
+        public AircraftSnapshot next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return buckets[bucket][position++];
+        }
+    }
+}
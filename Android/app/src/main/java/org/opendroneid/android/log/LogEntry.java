@@ -38,8 +38,8 @@ public class LogEntry {
                 + macAddress + DELIM
                 + msgVersion + DELIM
                 + rssi + DELIM
-                + toHexString(data, data.length) + DELIM
-                + csvLog;
+                + (data != null ? toHexString(data, data.length) : "") + DELIM
+                + (csvLog != null ? csvLog : "");
     }
 
     static LogEntry fromString(String line) {
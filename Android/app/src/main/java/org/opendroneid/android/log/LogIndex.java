@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sidecar index for a capture log written by {@link LogWriter}.
+ *
+ * The index maps time buckets (of the entry timestamp, in nanoseconds) to the byte offset of the
+ * first record in that bucket, and each MAC address / UAS ID to a posting list of record offsets.
+ * A key gets at most one posting per time bucket, so a reader seeks to the offset and scans
+ * forward until the next bucket to find all frames of that aircraft.
+ *
+ * The index is stored next to the log as {@code <log name>.idx} and can be rebuilt from an
+ * existing log with {@link #rebuild(File)}. It records how many bytes of the log it covers, so
+ * records appended after it was saved can be added with {@link #update(File)}.
+ */
+public class LogIndex {
+    public static final String SUFFIX = ".idx";
+    static final long BUCKET_NANOS = 10_000_000_000L; // 10 seconds
+
+    private static final String VERSION_LINE = "# OpenDroneID log index v1";
+    private static final char TYPE_TIME = 'T';
+    private static final char TYPE_MAC = 'M';
+    private static final char TYPE_UAS_ID = 'U';
+    private static final String LENGTH_PREFIX = "L,";
+
+    static final int TIMESTAMP_FIELD = 1;
+    static final int MAC_FIELD = 3;
+    static final int UAS_ID_FIELD = 9;
+
+    private final TreeMap<Long, Long> timeBuckets = new TreeMap<>();
+    private final Map<String, Postings> macPostings = new HashMap<>();
+    private final Map<String, Postings> uasIdPostings = new HashMap<>();
+    // Bytes of the log covered by the index, or -1 for an index saved without it
+    private long indexedLength = -1;
+
+    private static class Postings {
+        long[] offsets = new long[8];
+        int size;
+        long lastBucket = Long.MIN_VALUE;
+
+        void add(long offset, long bucket) {
+            if (bucket == lastBucket)
+                return;
+            append(offset);
+            lastBucket = bucket;
+        }
+
+        void append(long offset) {
+            if (size == offsets.length)
+                offsets = Arrays.copyOf(offsets, size * 2);
+            offsets[size++] = offset;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(offsets, size);
+        }
+    }
+
+    public static File indexFileFor(File logFile) {
+        return new File(logFile.getParentFile(), logFile.getName() + SUFFIX);
+    }
+
+    /** Record that the log entry starting at {@code offset} has the given timestamp and keys. */
+    void add(long offset, long timestampNanos, String macAddress, String uasId) {
+        long bucket = timestampNanos / BUCKET_NANOS;
+        if (!timeBuckets.containsKey(bucket))
+            timeBuckets.put(bucket, offset);
+        if (macAddress != null && !macAddress.isEmpty())
+            postingsFor(macPostings, macAddress).add(offset, bucket);
+        if (uasId != null && !uasId.isEmpty())
+            postingsFor(uasIdPostings, uasId).add(offset, bucket);
+    }
+
+    private static Postings postingsFor(Map<String, Postings> map, String key) {
+        Postings postings = map.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            map.put(key, postings);
+        }
+        return postings;
+    }
+
+    void setIndexedLength(long indexedLength) {
+        this.indexedLength = indexedLength;
+    }
+
+    public long getIndexedLength() {
+        return indexedLength;
+    }
+
+    /** Offset of the first record at or before the bucket holding {@code timestampNanos}, or -1. */
+    public long getOffsetForTimestamp(long timestampNanos) {
+        Map.Entry<Long, Long> entry = timeBuckets.floorEntry(timestampNanos / BUCKET_NANOS);
+        if (entry == null)
+            return timeBuckets.isEmpty() ? -1 : timeBuckets.firstEntry().getValue();
+        return entry.getValue();
+    }
+
+    public long[] getOffsetsForMac(String macAddress) {
+        Postings postings = macPostings.get(macAddress);
+        return postings == null ? new long[0] : postings.toArray();
+    }
+
+    public long[] getOffsetsForUasId(String uasId) {
+        Postings postings = uasIdPostings.get(uasId);
+        return postings == null ? new long[0] : postings.toArray();
+    }
+
+    /**
+     * Write the index atomically, so readers never see a half written file. Each save uses its
+     * own temporary file, as a reader may save the index of the log that is being written.
+     */
+    public void save(File indexFile) throws IOException {
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            writer.write(VERSION_LINE);
+            writer.write('\n');
+            if (indexedLength >= 0)
+                writer.write(LENGTH_PREFIX + indexedLength + "\n");
+            for (Map.Entry<Long, Long> entry : timeBuckets.entrySet()) {
+                writer.write(TYPE_TIME + "," + entry.getKey() + "," + entry.getValue() + "\n");
+            }
+            writePostings(writer, TYPE_MAC, macPostings);
+            writePostings(writer, TYPE_UAS_ID, uasIdPostings);
+        }
+        if (!tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + indexFile);
+        }
+    }
+
+    private static void writePostings(Writer writer, char type, Map<String, Postings> map)
+            throws IOException {
+        for (Map.Entry<String, Postings> entry : map.entrySet()) {
+            Postings postings = entry.getValue();
+            writer.write(type);
+            writer.write(',');
+            writer.write(entry.getKey());
+            writer.write(',');
+            for (int i = 0; i < postings.size; i++) {
+                if (i > 0)
+                    writer.write(' ');
+                writer.write(Long.toString(postings.offsets[i]));
+            }
+            writer.write('\n');
+        }
+    }
+
+    public static LogIndex load(File indexFile) throws IOException {
+        LogIndex index = new LogIndex();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (!VERSION_LINE.equals(line))
+                throw new IOException("Unsupported index format: " + indexFile);
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(LENGTH_PREFIX)) {
+                    index.indexedLength = Long.parseLong(line.substring(LENGTH_PREFIX.length()));
+                    continue;
+                }
+                int first = line.indexOf(',');
+                int last = line.lastIndexOf(',');
+                if (first != 1 || last <= first)
+                    continue;
+                String key = line.substring(first + 1, last);
+                String value = line.substring(last + 1);
+                switch (line.charAt(0)) {
+                    case TYPE_TIME:
+                        index.timeBuckets.put(Long.parseLong(key), Long.parseLong(value));
+                        break;
+                    case TYPE_MAC:
+                        readPostings(postingsFor(index.macPostings, key), value);
+                        break;
+                    case TYPE_UAS_ID:
+                        readPostings(postingsFor(index.uasIdPostings, key), value);
+                        break;
+                }
+            }
+        }
+        return index;
+    }
+
+    private static void readPostings(Postings postings, String value) {
+        for (String offset : value.split(" ")) {
+            if (!offset.isEmpty())
+                postings.append(Long.parseLong(offset));
+        }
+    }
+
+    /**
+     * Scan an existing log file and rebuild its index. Used for captures that were written
+     * before the index existed, or when the sidecar file was lost.
+     */
+    public static LogIndex rebuild(File logFile) throws IOException {
+        LogIndex index = new LogIndex();
+        index.scan(logFile, 0);
+        index.save(indexFileFor(logFile));
+        return index;
+    }
+
+    /**
+     * Add the records appended to {@code logFile} since the index was built or saved. The index
+     * must know its indexed length.
+     */
+    public void update(File logFile) throws IOException {
+        if (indexedLength < 0)
+            throw new IllegalStateException("Index length unknown");
+        if (logFile.length() > indexedLength)
+            scan(logFile, indexedLength);
+    }
+
+    /** Index the complete lines from {@code start}, the start of a line, to the end of the log. */
+    private void scan(File logFile, long start) throws IOException {
+        if (start > logFile.length())
+            throw new IOException("Log shorter than its index: " + logFile);
+        try (FileInputStream file = new FileInputStream(logFile)) {
+            file.getChannel().position(start);
+            InputStream in = new BufferedInputStream(file);
+            byte[] line = new byte[1024];
+            long offset = start;
+            long lineStart = start;
+            int length = 0;
+            boolean header = start == 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                offset++;
+                if (b != '\n') {
+                    if (length == line.length)
+                        line = Arrays.copyOf(line, length * 2);
+                    line[length++] = (byte) b;
+                    continue;
+                }
+                if (header)
+                    header = false;
+                else
+                    addLine(lineStart, new String(line, 0, length, StandardCharsets.UTF_8));
+                lineStart = offset;
+                length = 0;
+            }
+            // A trailing line without newline is still being written, it is indexed next time
+            indexedLength = lineStart;
+        }
+    }
+
+    private void addLine(long offset, String line) {
+        String[] fields = line.split(",", UAS_ID_FIELD + 2);
+        if (fields.length <= MAC_FIELD)
+            return;
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(fields[TIMESTAMP_FIELD].trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String uasId = fields.length > UAS_ID_FIELD ? cleanUasId(fields[UAS_ID_FIELD]) : null;
+        add(offset, timestamp, fields[MAC_FIELD].trim(), uasId);
+    }
+
+    /** Extract the UAS ID of the first Basic ID message from a {@link LogMessageEntry} csv line. */
+    static String extractUasId(CharSequence csvLog) {
+        if (csvLog == null)
+            return null;
+        // The first Basic ID is logged as: idType,uaType,uasId,
+        int start = -1;
+        int commas = 0;
+        for (int i = 0; i < csvLog.length(); i++) {
+            if (csvLog.charAt(i) != ',')
+                continue;
+            commas++;
+            if (commas == 2) {
+                start = i + 1;
+            } else if (commas == 3) {
+                return cleanUasId(csvLog.subSequence(start, i).toString());
+            }
+        }
+        return null;
+    }
+
+    /** The key a {@link org.opendroneid.android.data.Identification} UAS ID is indexed under, or null. */
+    public static String uasIdKey(byte[] uasId) {
+        return uasId == null ? null : cleanUasId(new String(uasId));
+    }
+
+    static String cleanUasId(String raw) {
+        int end = raw.indexOf('\0');
+        String id = (end >= 0 ? raw.substring(0, end) : raw).trim();
+        return id.isEmpty() ? null : id;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.log;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of one aircraft back from a capture log written by {@link LogWriter}. The
+ * {@link LogIndex} of the log is used to seek to the frames instead of scanning the whole file.
+ */
+public class LogReader {
+    private static final String TAG = "LogReader";
+    /** Name prefix of the capture logs, see {@link #indexLogs}. */
+    public static final String LOG_PREFIX = "log_";
+
+    /**
+     * The index of {@code logFile}. The sidecar is loaded and brought up to date with the records
+     * written since it was saved; it is rebuilt when it is missing, unreadable or from a version
+     * that did not record its length.
+     */
+    public static LogIndex openIndex(File logFile) throws IOException {
+        File indexFile = LogIndex.indexFileFor(logFile);
+        if (indexFile.exists()) {
+            try {
+                LogIndex index = LogIndex.load(indexFile);
+                if (index.getIndexedLength() >= 0 && index.getIndexedLength() <= logFile.length()) {
+                    index.update(logFile);
+                    return index;
+                }
+            } catch (IOException | NumberFormatException e) {
+                Log.w(TAG, "Rebuilding unreadable index " + indexFile, e);
+            }
+        }
+        return LogIndex.rebuild(logFile);
+    }
+
+    /**
+     * Rebuild or complete the indexes of the capture logs in {@code dir} that are missing one or
+     * were not closed properly. The log that is being written, {@code current}, is skipped.
+     */
+    public static void indexLogs(File dir, File current) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(LOG_PREFIX) || !name.endsWith(".csv") || file.equals(current))
+                continue;
+            File indexFile = LogIndex.indexFileFor(file);
+            // LogWriter saves the index after closing the log
+            if (indexFile.lastModified() >= file.lastModified())
+                continue;
+            try {
+                LogIndex index = openIndex(file);
+                if (indexFile.lastModified() < file.lastModified())
+                    index.save(indexFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to index " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Copy the header and the frames of one aircraft, received at or after {@code sinceNanos}
+     * (the log timestamp clock), from {@code logFile} to {@code out}. A frame belongs to the
+     * aircraft when it comes from {@code macAddress} or carries {@code uasId}; either may be null.
+     *
+     * @return the number of frames copied
+     */
+    public static int extract(File logFile, LogIndex index, String macAddress, String uasId,
+                              long sinceNanos, File out) throws IOException {
+        long[] offsets = merge(macAddress == null ? new long[0] : index.getOffsetsForMac(macAddress),
+                uasId == null ? new long[0] : index.getOffsetsForUasId(uasId));
+        long start = index.getOffsetForTimestamp(sinceNanos);
+        int count = 0;
+        try (FileInputStream file = new FileInputStream(logFile);
+             Writer writer = new BufferedWriter(
+                     new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
+            LineReader reader = new LineReader(file);
+            String header = reader.readLine();
+            if (header == null)
+                return 0;
+            writer.write(header);
+            writer.write('\n');
+            for (int i = 0; i < offsets.length; i++) {
+                long end = i + 1 < offsets.length ? offsets[i + 1] : Long.MAX_VALUE;
+                // The frames of this posting all come before the bucket of sinceNanos
+                if (end <= start)
+                    continue;
+                reader.seek(offsets[i]);
+                long bucket = Long.MIN_VALUE;
+                String line;
+                while (reader.position() < end && (line = reader.readLine()) != null) {
+                    String[] fields = line.split(",", LogIndex.UAS_ID_FIELD + 2);
+                    if (fields.length <= LogIndex.MAC_FIELD)
+                        continue;
+                    long timestamp;
+                    try {
+                        timestamp = Long.parseLong(fields[LogIndex.TIMESTAMP_FIELD].trim());
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    // The key has no more frames once the log is past the bucket of its posting,
+                    // allowing one bucket for frames that arrive out of order between transports
+                    long lineBucket = timestamp / LogIndex.BUCKET_NANOS;
+                    if (bucket == Long.MIN_VALUE)
+                        bucket = lineBucket;
+                    else if (lineBucket > bucket + 1)
+                        break;
+                    if (timestamp < sinceNanos || !matches(fields, macAddress, uasId))
+                        continue;
+                    writer.write(line);
+                    writer.write('\n');
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean matches(String[] fields, String macAddress, String uasId) {
+        if (macAddress != null && macAddress.equals(fields[LogIndex.MAC_FIELD].trim()))
+            return true;
+        return uasId != null && fields.length > LogIndex.UAS_ID_FIELD
+                && uasId.equals(LogIndex.cleanUasId(fields[LogIndex.UAS_ID_FIELD]));
+    }
+
+    /** Sorted union of two sorted posting lists. */
+    private static long[] merge(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length || j < b.length) {
+            long next;
+            if (j == b.length || (i < a.length && a[i] <= b[j]))
+                next = a[i++];
+            else
+                next = b[j++];
+            if (size == 0 || merged[size - 1] != next)
+                merged[size++] = next;
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    /** Reads UTF-8 lines and keeps track of the byte offset, so it can seek to index offsets. */
+    private static class LineReader {
+        private final FileInputStream file;
+        private InputStream in;
+        private long position;
+        private byte[] line = new byte[1024];
+
+        LineReader(FileInputStream file) {
+            this.file = file;
+            this.in = new BufferedInputStream(file);
+        }
+
+        void seek(long offset) throws IOException {
+            file.getChannel().position(offset);
+            in = new BufferedInputStream(file);
+            position = offset;
+        }
+
+        long position() {
+            return position;
+        }
+
+        /** The next complete line, or null at the end of the log or of what is written so far. */
+        String readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    position += length + 1;
+                    return new String(line, 0, length, StandardCharsets.UTF_8);
+                }
+                if (length == line.length)
+                    line = Arrays.copyOf(line, length * 2);
+                line[length++] = (byte) b;
+            }
+            // Leave an unterminated line for the next read
+            seek(position);
+            return null;
+        }
+    }
+}
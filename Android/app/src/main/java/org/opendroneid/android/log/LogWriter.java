@@ -26,48 +26,78 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 public class LogWriter {
     private static final String TAG = "LogWriter";
+    private static final long INDEX_SAVE_INTERVAL_MS = 10000;
+    private static final int NEWLINE_BYTES = utf8Length(System.lineSeparator());
+    private static final LogEntry END_OF_LOG = new LogEntry();
     private final BufferedWriter writer;
+    private final File indexFile;
+    private final LogIndex index = new LogIndex();
     private static int session = 0;
     public static void bumpSession() { session++; }
-    private final BlockingQueue<String> logQueue = new LinkedBlockingQueue<>();
-    private boolean loggingActive = false;
+    private final BlockingQueue<LogEntry> logQueue = new LinkedBlockingQueue<>();
 
     public LogWriter(File file) throws IOException {
         writer = new BufferedWriter(
                 new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        indexFile = LogIndex.indexFileFor(file);
         ExecutorService exec = Executors.newSingleThreadExecutor();
 
         Log.i(TAG, "starting logging to " + file);
         exec.submit(() -> {
             try {
-                loggingActive = true;
                 long last = System.currentTimeMillis();
+                long lastIndexSave = last;
 
                 // write header
-                writer.write(TextUtils.join(",", LogEntry.HEADER));
-                writer.write("," + OpenDroneIdParser.BasicId.csvHeader());
-                writer.write(OpenDroneIdParser.BasicId.csvHeader());
-                writer.write(OpenDroneIdParser.Location.csvHeader());
-                writer.write(OpenDroneIdParser.SelfID.csvHeader());
-                writer.write(OpenDroneIdParser.SystemMsg.csvHeader());
-                writer.write(OpenDroneIdParser.OperatorID.csvHeader());
+                StringBuilder header = new StringBuilder();
+                header.append(TextUtils.join(",", LogEntry.HEADER));
+                header.append("," + OpenDroneIdParser.BasicId.csvHeader());
+                header.append(OpenDroneIdParser.BasicId.csvHeader());
+                header.append(OpenDroneIdParser.Location.csvHeader());
+                header.append(OpenDroneIdParser.SelfID.csvHeader());
+                header.append(OpenDroneIdParser.SystemMsg.csvHeader());
+                header.append(OpenDroneIdParser.OperatorID.csvHeader());
                 for (int i = 0; i < Constants.MAX_AUTH_DATA_PAGES; i++)
-                    writer.write(OpenDroneIdParser.Authentication.csvHeader());
+                    header.append(OpenDroneIdParser.Authentication.csvHeader());
+                writer.write(header.toString());
                 writer.newLine();
-                while (loggingActive) {
-                    String log;
+                long offset = utf8Length(header) + NEWLINE_BYTES;
+                index.setIndexedLength(offset);
+                // Runs until END_OF_LOG, so the entries queued before close() are still written
+                while (true) {
+                    LogEntry entry;
                     try {
-                        log = logQueue.take();
+                        entry = logQueue.take();
                     } catch (InterruptedException e) {
                         break;
                     }
+                    if (entry == END_OF_LOG)
+                        break;
+                    String log;
+                    try {
+                        log = entry.toString();
+                        index.add(offset, entry.timestamp, entry.macAddress, LogIndex.extractUasId(entry.csvLog));
+                    } catch (RuntimeException e) {
+                        // Skip the entry rather than ending the log
+                        Log.e(TAG, "error formatting log entry", e);
+                        continue;
+                    }
                     writer.write(log);
                     writer.newLine();
+                    offset += utf8Length(log) + NEWLINE_BYTES;
+                    index.setIndexedLength(offset);
                     long time = System.currentTimeMillis();
                     if (time - last > 1000) {
                         writer.flush();
                         last = time;
                     }
+                    if (time - lastIndexSave > INDEX_SAVE_INTERVAL_MS) {
+                        // The saved index must not cover records that are not on disk yet
+                        writer.flush();
+                        last = time;
+                        saveIndex();
+                        lastIndexSave = time;
+                    }
                 }
             } catch (IOException e) {
                 Log.e(TAG, "error writing log", e);
@@ -78,10 +108,40 @@ public class LogWriter {
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+                saveIndex();
+                exec.shutdown();
             }
         });
     }
 
+    private void saveIndex() {
+        try {
+            index.save(indexFile);
+        } catch (IOException e) {
+            Log.e(TAG, "error writing log index", e);
+        }
+    }
+
+    /** Number of bytes the UTF-8 encoding of {@code text} occupies, without encoding it. */
+    static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
     public void logBluetooth(int msgVersion, ScanResult result,
                              String transportType, StringBuilder csvLog) {
         LogEntry entry = new LogEntry();
@@ -94,7 +154,7 @@ public class LogWriter {
         if (result.getScanRecord() != null)
             entry.data = result.getScanRecord().getBytes();
         entry.csvLog = csvLog;
-        logQueue.add(entry.toString());
+        logQueue.add(entry);
     }
 
     public void logNaN(int msgVersion, Long timeNano, int peerHash, byte[] serviceSpecificInfo,
@@ -109,7 +169,7 @@ public class LogWriter {
         if (serviceSpecificInfo != null)
             entry.data = serviceSpecificInfo;
         entry.csvLog = csvLog;
-        logQueue.add(entry.toString());
+        logQueue.add(entry);
     }
 
     public void logBeacon(int msgVersion, Long timeNano, android.net.wifi.ScanResult scanResult,
@@ -124,17 +184,14 @@ public class LogWriter {
         if (data != null)
             entry.data = data;
         entry.csvLog = csvLog;
-        logQueue.add(entry.toString());
+        logQueue.add(entry);
     }
 
+    /**
+     * Stop logging. The writer thread writes the entries queued so far, then closes the file and
+     * saves the final index.
+     */
     public void close() {
-        loggingActive = false;
-        try {
-            writer.flush();
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        logQueue.add(END_OF_LOG);
     }
 }
-
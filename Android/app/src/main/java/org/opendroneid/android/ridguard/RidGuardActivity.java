@@ -10,13 +10,9 @@ import android.Manifest;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.net.ConnectivityManager;
-import android.net.NetworkCapabilities;
 import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.provider.Settings;
 import android.view.View;
 import android.widget.Button;
@@ -35,7 +31,7 @@ import org.opendroneid.android.R;
 import org.opendroneid.android.app.AircraftViewModel;
 import org.opendroneid.android.app.AircraftOsMapView;
 import org.opendroneid.android.app.DeviceList;
-import org.opendroneid.android.data.AircraftObject;
+import org.opendroneid.android.app.UiRefreshScheduler;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -49,8 +45,7 @@ public class RidGuardActivity extends AppCompatActivity {
     private TextView lastScanText;
     private View mapContainer;
     private View mapDisabledText;
-    private Handler handler;
-    private Runnable runnable;
+    private UiRefreshScheduler refreshScheduler;
     private final ActivityResultLauncher<Intent> enableWifiLauncher =
             registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
                 WifiManager wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
@@ -85,7 +80,6 @@ public class RidGuardActivity extends AppCompatActivity {
         settingsButton.setOnClickListener(v -> startActivity(new Intent(this, RidGuardSettingsActivity.class)));
 
         repository.getScanning().observe(this, scanning -> updateStatus());
-        repository.getLastScanTime().observe(this, time -> updateStatus());
 
         addDeviceList();
         updateMapVisibility();
@@ -94,19 +88,17 @@ public class RidGuardActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        handler = new Handler(Looper.getMainLooper());
-        runnable = () -> {
-            for (AircraftObject aircraft : repository.getDataManager().aircraft.values()) {
-                aircraft.updateShadowBasicId();
-                aircraft.connection.setValue(aircraft.connection.getValue());
-            }
-            aircraftViewModel.setAllAircraft(repository.getDataManager().aircraft);
-            radarView.updateData(new ArrayList<>(repository.getDataManager().aircraft.values()),
-                    repository.getReceiverLocation(),
-                    repository.getSettings().getRadiusMeters());
-            handler.postDelayed(runnable, 1000);
-        };
-        handler.post(runnable);
+        if (refreshScheduler == null) {
+            refreshScheduler = new UiRefreshScheduler(repository.getDataManager(), () -> {
+                aircraftViewModel.setAllAircraft(repository.getDataManager().aircraft);
+                radarView.updateData(repository.getDataManager().getSnapshot(),
+                        repository.getReceiverLocation(),
+                        repository.getSettings().getRadiusMeters());
+                updateStatus();
+            });
+        }
+        repository.attachUi();
+        refreshScheduler.start();
         updateStatus();
         updateMapVisibility();
     }
@@ -114,9 +106,10 @@ public class RidGuardActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        if (handler != null) {
-            handler.removeCallbacks(runnable);
+        if (refreshScheduler != null) {
+            refreshScheduler.stop();
         }
+        repository.detachUi();
     }
 
     private void addDeviceList() {
@@ -179,7 +172,7 @@ public class RidGuardActivity extends AppCompatActivity {
 
     private void updateStatus() {
         Boolean scanning = repository.getScanning().getValue();
-        long lastScan = repository.getLastScanTime().getValue() != null ? repository.getLastScanTime().getValue() : 0L;
+        long lastScan = repository.getLastScanTime();
         String status = repository.buildStatusSummary();
         statusText.setText(getString(R.string.rid_guard_status, status));
         if (lastScan > 0) {
@@ -197,8 +190,9 @@ public class RidGuardActivity extends AppCompatActivity {
 
     private void updateMapVisibility() {
         boolean mapEnabled = repository.getSettings().isMapEnabled();
-        boolean online = isInternetAvailable();
-        if (mapEnabled && online) {
+        // Stored archives or cached tiles let the map work without a network
+        boolean tilesAvailable = RidGuardOfflineMaps.isOnline(this) || RidGuardOfflineMaps.hasOfflineTiles(this);
+        if (mapEnabled && tilesAvailable) {
             mapContainer.setVisibility(View.VISIBLE);
             mapDisabledText.setVisibility(View.GONE);
             if (getSupportFragmentManager().findFragmentById(R.id.rid_guard_map_container) == null) {
@@ -212,15 +206,6 @@ public class RidGuardActivity extends AppCompatActivity {
         }
     }
 
-    private boolean isInternetAvailable() {
-        ConnectivityManager manager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (manager == null) {
-            return false;
-        }
-        NetworkCapabilities capabilities = manager.getNetworkCapabilities(manager.getActiveNetwork());
-        return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
-    }
-
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
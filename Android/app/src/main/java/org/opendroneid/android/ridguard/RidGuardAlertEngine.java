@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether an aircraft update raises an alert.
+ *
+ * The rules are compiled from the {@link RidGuardSettings.Snapshot} and recompiled only when a
+ * new snapshot or geofence is published. An update alerts when it is not silenced or ignored, at
+ * least one trigger matches (alert radius, geofence zone, watchlist or a predicted breach of the
+ * radius or a zone within the prediction horizon), all conditions match
+ * (altitude band, speed, time of day) and the aircraft is out of its cooldown. The alert level is
+ * the highest of the matching triggers. The cooldown state is safe to use from any thread and
+ * expired entries are pruned periodically.
+ */
+public class RidGuardAlertEngine {
+    private static final long PRUNE_INTERVAL_MS = 60_000L;
+
+    /** The values of one update. Reused by the caller, so rules must not keep a reference. */
+    public static final class Input {
+        public String aircraftId;
+        public float distanceMeters;
+        /** Altitude relative to the receiver, NaN if unknown. */
+        public double altitudeDiffMeters = Double.NaN;
+        /** Horizontal speed, NaN if unknown. */
+        public double speedMps = Double.NaN;
+        /** Aircraft position, NaN if unknown. */
+        public double latitude = Double.NaN;
+        public double longitude = Double.NaN;
+        /** Course over ground in degrees clockwise from north, NaN if unknown. */
+        public double directionDeg = Double.NaN;
+        /** Receiver position, NaN if unknown. */
+        public double receiverLatitude = Double.NaN;
+        public double receiverLongitude = Double.NaN;
+        public long now;
+
+        // Results
+        public RidGuardAlertLevel level;
+        /** The geofence zone that matched, if any. */
+        public RidGuardGeofence.Zone zone;
+        /** Time and distance of the closest approach to the receiver, NaN if not computed. */
+        public double cpaSeconds;
+        public double cpaMeters;
+        /** Seconds until a predicted breach, NaN if none. */
+        public double predictedSeconds;
+        /** The geofence zone the track is predicted to enter first, if any. */
+        public RidGuardGeofence.Zone predictedZone;
+
+        void raiseLevel(RidGuardAlertLevel triggerLevel) {
+            level = triggerLevel.max(level);
+        }
+    }
+
+    private static final class Rules {
+        final RidGuardSettings.Snapshot source;
+        final RidGuardGeofence geofence;
+        final RidGuardAlertRule[] triggers;
+        final RidGuardAlertRule[] conditions;
+        final long cooldownMs;
+
+        Rules(RidGuardSettings.Snapshot source, RidGuardGeofence geofence) {
+            this.source = source;
+            this.geofence = geofence;
+            List<RidGuardAlertRule> triggerList = new ArrayList<>();
+            triggerList.add(new RidGuardAlertRule.Zone(source.radiusMeters));
+            if (!geofence.isEmpty()) {
+                triggerList.add(new RidGuardAlertRule.Geofence(geofence));
+            }
+            if (!source.watchIds.isEmpty()) {
+                triggerList.add(new RidGuardAlertRule.Watchlist(source.watchIds));
+            }
+            if (source.predictSeconds > 0) {
+                triggerList.add(new RidGuardAlertRule.Predicted(
+                        source.radiusMeters, source.predictSeconds, geofence));
+            }
+            List<RidGuardAlertRule> conditionList = new ArrayList<>();
+            if (source.altitudeWindowEnabled) {
+                conditionList.add(new RidGuardAlertRule.AltitudeBand(
+                        source.altitudeMinMeters, source.altitudeMaxMeters));
+            }
+            if (source.speedMinMps > 0) {
+                conditionList.add(new RidGuardAlertRule.MinSpeed(source.speedMinMps));
+            }
+            if (source.activeFromHour % 24 != source.activeToHour % 24) {
+                conditionList.add(new RidGuardAlertRule.TimeOfDay(
+                        source.activeFromHour, source.activeToHour, TimeZone.getDefault()));
+            }
+            triggers = triggerList.toArray(new RidGuardAlertRule[0]);
+            conditions = conditionList.toArray(new RidGuardAlertRule[0]);
+            cooldownMs = source.cooldownSeconds * 1000L;
+        }
+    }
+
+    private final RidGuardSettings settings;
+    // ConcurrentHashMap, not Map: the Map defaults of putIfAbsent and replace need API 24
+    private final ConcurrentHashMap<String, Long> lastAlertById = new ConcurrentHashMap<>();
+    private volatile RidGuardGeofence geofence = RidGuardGeofence.EMPTY;
+    private volatile Rules rules;
+    private volatile long nextPrune;
+
+    public RidGuardAlertEngine(RidGuardSettings settings) {
+        this.settings = settings;
+    }
+
+    public void setGeofence(RidGuardGeofence geofence) {
+        this.geofence = geofence != null ? geofence : RidGuardGeofence.EMPTY;
+    }
+
+    public RidGuardGeofence getGeofence() {
+        return geofence;
+    }
+
+    /**
+     * @return true if the update should raise an alert; the cooldown then starts and
+     * {@link Input#level} holds the alert level.
+     */
+    public boolean evaluate(Input input) {
+        long start = System.nanoTime();
+        boolean alert = evaluateRules(input);
+        RidGuardMetrics.alertEvaluations.incrementAndGet();
+        RidGuardMetrics.alertNanos.addAndGet(System.nanoTime() - start);
+        return alert;
+    }
+
+    private boolean evaluateRules(Input input) {
+        input.level = null;
+        input.zone = null;
+        input.predictedZone = null;
+        input.cpaSeconds = Double.NaN;
+        input.cpaMeters = Double.NaN;
+        input.predictedSeconds = Double.NaN;
+        if (input.aircraftId == null) {
+            return false;
+        }
+        RidGuardSettings.Snapshot snapshot = settings.getSnapshot();
+        RidGuardGeofence currentGeofence = geofence;
+        Rules current = rules;
+        if (current == null || current.source != snapshot || current.geofence != currentGeofence) {
+            current = new Rules(snapshot, currentGeofence);
+            rules = current;
+        }
+        long now = input.now;
+        if (now >= nextPrune) {
+            prune(now, current.cooldownMs);
+        }
+        if (snapshot.isSilenced(now)) {
+            return false;
+        }
+        if (!matchesAny(current.triggers, input) || !matchesAll(current.conditions, input)) {
+            return false;
+        }
+        if (snapshot.isManuallyIgnored(input.aircraftId)
+                || snapshot.isTemporarilyIgnored(input.aircraftId, now)) {
+            return false;
+        }
+        return startCooldown(input.aircraftId, now, current.cooldownMs);
+    }
+
+    /** Runs every rule, so the input ends up with the highest level of all matching triggers. */
+    private static boolean matchesAny(RidGuardAlertRule[] rules, Input input) {
+        boolean matched = false;
+        for (RidGuardAlertRule rule : rules) {
+            matched |= rule.matches(input);
+        }
+        return matched;
+    }
+
+    private static boolean matchesAll(RidGuardAlertRule[] rules, Input input) {
+        for (RidGuardAlertRule rule : rules) {
+            if (!rule.matches(input)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startCooldown(String aircraftId, long now, long cooldownMs) {
+        Long previous = lastAlertById.putIfAbsent(aircraftId, now);
+        while (previous != null) {
+            if (now - previous < cooldownMs) {
+                return false;
+            }
+            if (lastAlertById.replace(aircraftId, previous, now)) {
+                return true;
+            }
+            previous = lastAlertById.putIfAbsent(aircraftId, now);
+        }
+        return true;
+    }
+
+    private void prune(long now, long cooldownMs) {
+        nextPrune = now + PRUNE_INTERVAL_MS;
+        Iterator<Long> iterator = lastAlertById.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() >= cooldownMs) {
+                iterator.remove();
+            }
+        }
+    }
+}
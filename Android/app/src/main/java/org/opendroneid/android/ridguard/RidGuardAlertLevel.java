@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import java.util.Locale;
+
+/** Severity of an alert, in increasing order. */
+public enum RidGuardAlertLevel {
+    INFO,
+    WARNING,
+    CRITICAL;
+
+    public static RidGuardAlertLevel parse(String value, RidGuardAlertLevel defaultLevel) {
+        if (value == null) {
+            return defaultLevel;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
+        }
+    }
+
+    /** The more severe of two levels; {@code other} may be null. */
+    public RidGuardAlertLevel max(RidGuardAlertLevel other) {
+        return other != null && other.compareTo(this) > 0 ? other : this;
+    }
+}
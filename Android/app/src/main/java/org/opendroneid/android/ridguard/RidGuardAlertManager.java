@@ -12,66 +12,126 @@ import android.media.ToneGenerator;
 import android.os.Build;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
+import android.util.Log;
 
 import org.opendroneid.android.data.AircraftObject;
-import java.util.HashMap;
-import java.util.Map;
+import org.opendroneid.android.data.LocationData;
+import org.opendroneid.android.data.TrackFilter;
 
+/**
+ * Runs aircraft updates through the {@link RidGuardAlertEngine} and plays the alert: vibration
+ * only for INFO, a short tone for WARNING and a long one for CRITICAL. The tone generator and
+ * vibration pattern are created once and reused, so an alert doesn't pay for the audio setup.
+ * Updates are expected on the ingest thread.
+ */
 public class RidGuardAlertManager {
+    private static final String TAG = "RidGuardAlertManager";
     private static final int ALERT_TONE_MS = 300;
+    private static final int CRITICAL_TONE_MS = 1000;
+    private static final long[] VIBRATION_PATTERN = {0, 200, 150, 200};
+
     private final Context context;
-    private final RidGuardSettings settings;
-    private final Map<String, Long> lastAlertById = new HashMap<>();
+    private final RidGuardAlertEngine engine;
+    private final RidGuardAlertEngine.Input input = new RidGuardAlertEngine.Input();
+    private Vibrator vibrator;
+    private Object vibrationEffect;
+    private ToneGenerator toneGenerator;
+    private double receiverLatitude = Double.NaN;
+    private double receiverLongitude = Double.NaN;
 
     public RidGuardAlertManager(Context context, RidGuardSettings settings) {
         this.context = context.getApplicationContext();
-        this.settings = settings;
+        this.engine = new RidGuardAlertEngine(settings);
     }
 
-    public void maybeAlert(AircraftObject aircraft, String aircraftId, Double altitudeDiffMeters,
-                           float distanceMeters) {
-        if (aircraft == null) {
-            return;
+    /** @return true if an alert was raised for this update */
+    public boolean maybeAlert(AircraftObject aircraft, String aircraftId, Double altitudeDiffMeters,
+                              float distanceMeters, double speedMps) {
+        if (aircraft == null || aircraftId == null) {
+            return false;
         }
-        if (aircraftId == null) {
-            return;
+        input.aircraftId = aircraftId;
+        input.distanceMeters = distanceMeters;
+        input.altitudeDiffMeters = altitudeDiffMeters != null ? altitudeDiffMeters : Double.NaN;
+        input.speedMps = speedMps;
+        TrackFilter track = aircraft.getTrack();
+        if (track.isValid()) {
+            input.latitude = track.getLatitude();
+            input.longitude = track.getLongitude();
+            input.directionDeg = track.getDirection();
+        } else {
+            LocationData location = aircraft.getLocation();
+            boolean hasPosition = location != null
+                    && (location.getLatitude() != 0 || location.getLongitude() != 0);
+            input.latitude = hasPosition ? location.getLatitude() : Double.NaN;
+            input.longitude = hasPosition ? location.getLongitude() : Double.NaN;
+            input.directionDeg = location != null && location.getDirection() <= 360 ? location.getDirection() : Double.NaN;
         }
-        if (System.currentTimeMillis() < settings.getSilenceUntil()) {
-            return;
+        input.receiverLatitude = receiverLatitude;
+        input.receiverLongitude = receiverLongitude;
+        input.now = System.currentTimeMillis();
+        boolean alert = engine.evaluate(input);
+        input.aircraftId = null;
+        input.zone = null;
+        input.predictedZone = null;
+        if (alert) {
+            triggerAlert(input.level);
         }
-        if (settings.isManuallyIgnored(aircraftId) || settings.isTemporarilyIgnored(aircraftId)) {
-            return;
+        return alert;
+    }
+
+    /** Update the receiver position used for the closest approach prediction. */
+    public void setReceiverPosition(double latitude, double longitude) {
+        receiverLatitude = latitude;
+        receiverLongitude = longitude;
+    }
+
+    /** Replace the geofence zones used for alerts. */
+    public void setGeofence(RidGuardGeofence geofence) {
+        engine.setGeofence(geofence);
+    }
+
+    public RidGuardGeofence getGeofence() {
+        return engine.getGeofence();
+    }
+
+    private void triggerAlert(RidGuardAlertLevel level) {
+        if (vibrator == null) {
+            vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        }
+        if (vibrator != null && vibrator.hasVibrator()) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                if (vibrationEffect == null) {
+                    vibrationEffect = VibrationEffect.createWaveform(VIBRATION_PATTERN, -1);
+                }
+                vibrator.vibrate((VibrationEffect) vibrationEffect);
+            } else {
+                vibrator.vibrate(VIBRATION_PATTERN, -1);
+            }
         }
-        if (distanceMeters <= 0 || distanceMeters > settings.getRadiusMeters()) {
+        if (level == RidGuardAlertLevel.INFO) {
             return;
         }
-        if (settings.isAltitudeWindowEnabled() && altitudeDiffMeters != null) {
-            int min = settings.getAltitudeMinMeters();
-            int max = settings.getAltitudeMaxMeters();
-            if (altitudeDiffMeters < min || altitudeDiffMeters > max) {
+        if (toneGenerator == null) {
+            try {
+                toneGenerator = new ToneGenerator(AudioManager.STREAM_ALARM, 80);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Alert tone unavailable", e);
                 return;
             }
         }
-        long now = System.currentTimeMillis();
-        Long lastAlert = lastAlertById.get(aircraftId);
-        if (lastAlert != null && now - lastAlert < settings.getCooldownSeconds() * 1000L) {
-            return;
+        if (level == RidGuardAlertLevel.CRITICAL) {
+            toneGenerator.startTone(ToneGenerator.TONE_CDMA_EMERGENCY_RINGBACK, CRITICAL_TONE_MS);
+        } else {
+            toneGenerator.startTone(ToneGenerator.TONE_CDMA_ALERT_CALL_GUARD, ALERT_TONE_MS);
         }
-        lastAlertById.put(aircraftId, now);
-        triggerAlert();
     }
 
-    private void triggerAlert() {
-        Vibrator vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
-        if (vibrator != null && vibrator.hasVibrator()) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                vibrator.vibrate(VibrationEffect.createWaveform(new long[]{0, 200, 150, 200}, -1));
-            } else {
-                vibrator.vibrate(new long[]{0, 200, 150, 200}, -1);
-            }
+    /** Release the audio resources, e.g. when scanning stops. The next alert recreates them. */
+    public void release() {
+        if (toneGenerator != null) {
+            toneGenerator.release();
+            toneGenerator = null;
         }
-        ToneGenerator toneGenerator = new ToneGenerator(AudioManager.STREAM_ALARM, 80);
-        toneGenerator.startTone(ToneGenerator.TONE_CDMA_ALERT_CALL_GUARD, ALERT_TONE_MS);
-        toneGenerator.release();
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * One compiled alert rule of the {@link RidGuardAlertEngine}. Rules are immutable and must not
+ * allocate in {@link #matches}, it runs for every aircraft update. A matching trigger raises
+ * {@link RidGuardAlertEngine.Input#level} to its alert level.
+ */
+public interface RidGuardAlertRule {
+    boolean matches(RidGuardAlertEngine.Input input);
+
+    /** The aircraft is inside the alert radius around the receiver. */
+    class Zone implements RidGuardAlertRule {
+        private final float radiusMeters;
+
+        public Zone(float radiusMeters) {
+            this.radiusMeters = radiusMeters;
+        }
+
+        @Override
+        public boolean matches(RidGuardAlertEngine.Input input) {
+            if (input.distanceMeters > 0 && input.distanceMeters <= radiusMeters) {
+                input.raiseLevel(RidGuardAlertLevel.WARNING);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** The aircraft is inside one of the geofence zones; the level is that of the zone. */
+    class Geofence implements RidGuardAlertRule {
+        private final RidGuardGeofence geofence;
+
+        public Geofence(RidGuardGeofence geofence) {
+            this.geofence = geofence;
+        }
+
+        @Override
+        public boolean matches(RidGuardAlertEngine.Input input) {
+            if (Double.isNaN(input.latitude) || Double.isNaN(input.longitude)) {
+                return false;
+            }
+            RidGuardGeofence.Zone zone = geofence.findHighest(input.latitude, input.longitude);
+            if (zone == null) {
+                return false;
+            }
+            input.raiseLevel(zone.level);
+            input.zone = zone;
+            return true;
+        }
+    }
+
+    /**
+     * The track, extrapolated at its current velocity, enters the alert radius or a geofence
+     * zone within the prediction horizon. The entry times are computed analytically, for the
+     * zones along the path only, see {@link RidGuardGeofence#predictEntry}; the earliest is
+     * reported with the zone entered first.
+     */
+    class Predicted implements RidGuardAlertRule {
+        private final double radiusMeters;
+        private final double horizonSeconds;
+        private final RidGuardGeofence geofence;
+
+        public Predicted(double radiusMeters, double horizonSeconds, RidGuardGeofence geofence) {
+            this.radiusMeters = radiusMeters;
+            this.horizonSeconds = horizonSeconds;
+            this.geofence = geofence;
+        }
+
+        @Override
+        public boolean matches(RidGuardAlertEngine.Input input) {
+            if (Double.isNaN(input.receiverLatitude) || Double.isNaN(input.latitude)
+                    || Double.isNaN(input.speedMps) || Double.isNaN(input.directionDeg)) {
+                return false;
+            }
+            double x = RidGuardCpa.toX(input.receiverLatitude, input.receiverLongitude, input.longitude);
+            double y = RidGuardCpa.toY(input.receiverLatitude, input.latitude);
+            double vx = RidGuardCpa.velocityX(input.speedMps, input.directionDeg);
+            double vy = RidGuardCpa.velocityY(input.speedMps, input.directionDeg);
+            input.cpaSeconds = RidGuardCpa.timeToCpa(x, y, vx, vy);
+            input.cpaMeters = RidGuardCpa.distanceAt(x, y, vx, vy, input.cpaSeconds);
+
+            boolean predicted = false;
+            double enter = RidGuardCpa.timeToEnter(x, y, vx, vy, radiusMeters);
+            if (enter > 0 && enter <= horizonSeconds) {
+                input.predictedSeconds = enter;
+                input.raiseLevel(RidGuardAlertLevel.WARNING);
+                predicted = true;
+            }
+            double zoneEnter = geofence.predictEntry(input.latitude, input.longitude, vx, vy, horizonSeconds, input);
+            if (!Double.isNaN(zoneEnter)) {
+                input.predictedSeconds = predicted ? Math.min(input.predictedSeconds, zoneEnter) : zoneEnter;
+                predicted = true;
+            }
+            return predicted;
+        }
+    }
+
+    /** The aircraft ID is on the watchlist. */
+    class Watchlist implements RidGuardAlertRule {
+        private final String[] ids;
+
+        public Watchlist(Set<String> ids) {
+            this.ids = new String[ids.size()];
+            int i = 0;
+            for (String id : ids) {
+                this.ids[i++] = id.toLowerCase(Locale.ROOT);
+            }
+        }
+
+        @Override
+        public boolean matches(RidGuardAlertEngine.Input input) {
+            String aircraftId = input.aircraftId;
+            if (aircraftId == null) {
+                return false;
+            }
+            // Watchlists are short; comparing in place avoids lower casing every aircraft ID
+            for (String id : ids) {
+                if (id.equalsIgnoreCase(aircraftId)) {
+                    input.raiseLevel(RidGuardAlertLevel.WARNING);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** The altitude relative to the receiver is within a band. Passes when the altitude is unknown. */
+    class AltitudeBand implements RidGuardAlertRule {
+        private final double minMeters;
+        private final double maxMeters;
+
+        public AltitudeBand(double minMeters, double maxMeters) {
+            this.minMeters = minMeters;
+            this.maxMeters = maxMeters;
+        }
+
+        @Override
+        public boolean matches(RidGuardAlertEngine.Input input) {
+            double altitude = input.altitudeDiffMeters;
+            return Double.isNaN(altitude) || (altitude >= minMeters && altitude <= maxMeters);
+        }
+    }
+
+    /** The horizontal speed is at least a minimum. Passes when the speed is unknown. */
+    class MinSpeed implements RidGuardAlertRule {
+        private final double minMps;
+
+        public MinSpeed(double minMps) {
+            this.minMps = minMps;
+        }
+
+        @Override
+        public boolean matches(RidGuardAlertEngine.Input input) {
+            return Double.isNaN(input.speedMps) || input.speedMps >= minMps;
+        }
+    }
+
+    /** The local time is within {@code [fromHour, toHour)}, wrapping past midnight if from > to. */
+    class TimeOfDay implements RidGuardAlertRule {
+        private static final long HOUR_MS = 60 * 60 * 1000L;
+        private static final long DAY_MS = 24 * HOUR_MS;
+        private final int fromHour;
+        private final int toHour;
+        private final TimeZone timeZone;
+
+        public TimeOfDay(int fromHour, int toHour, TimeZone timeZone) {
+            this.fromHour = fromHour;
+            this.toHour = toHour;
+            this.timeZone = timeZone;
+        }
+
+        @Override
+        public boolean matches(RidGuardAlertEngine.Input input) {
+            long local = input.now + timeZone.getOffset(input.now);
+            int hour = (int) ((local % DAY_MS + DAY_MS) % DAY_MS / HOUR_MS);
+            if (fromHour <= toHour) {
+                return hour >= fromHour && hour < toHour;
+            }
+            return hour >= fromHour || hour < toHour;
+        }
+    }
+}
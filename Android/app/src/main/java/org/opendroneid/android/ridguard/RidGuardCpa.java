@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+/**
+ * Closest point of approach for a track extrapolated at constant velocity, in a local flat
+ * frame in meters with the receiver at the origin (x east, y north). All methods are O(1) and
+ * allocation free.
+ */
+public final class RidGuardCpa {
+    static final double METERS_PER_DEGREE_LAT = 110_540;
+    static final double METERS_PER_DEGREE_LON = 111_320;
+
+    private RidGuardCpa() {
+    }
+
+    /** East offset in meters of {@code longitude} from {@code refLongitude} at {@code refLatitude}. */
+    public static double toX(double refLatitude, double refLongitude, double longitude) {
+        return (longitude - refLongitude) * METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(refLatitude));
+    }
+
+    /** North offset in meters of {@code latitude} from {@code refLatitude}. */
+    public static double toY(double refLatitude, double latitude) {
+        return (latitude - refLatitude) * METERS_PER_DEGREE_LAT;
+    }
+
+    /** East velocity for a speed and a course in degrees clockwise from north. */
+    public static double velocityX(double speedMps, double directionDeg) {
+        return speedMps * Math.sin(Math.toRadians(directionDeg));
+    }
+
+    /** North velocity for a speed and a course in degrees clockwise from north. */
+    public static double velocityY(double speedMps, double directionDeg) {
+        return speedMps * Math.cos(Math.toRadians(directionDeg));
+    }
+
+    /** Seconds until the closest approach to the origin; 0 if the track is moving away or still. */
+    public static double timeToCpa(double x, double y, double vx, double vy) {
+        double speedSquared = vx * vx + vy * vy;
+        if (speedSquared < 1e-9) {
+            return 0;
+        }
+        return Math.max(0, -(x * vx + y * vy) / speedSquared);
+    }
+
+    /** Distance to the origin at time {@code t} seconds from now. */
+    public static double distanceAt(double x, double y, double vx, double vy, double t) {
+        return Math.hypot(x + vx * t, y + vy * t);
+    }
+
+    /**
+     * Seconds until the track enters the circle of {@code radius} around the origin: 0 if it is
+     * already inside, NaN if it never does.
+     */
+    public static double timeToEnter(double x, double y, double vx, double vy, double radius) {
+        double c = x * x + y * y - radius * radius;
+        if (c <= 0) {
+            return 0;
+        }
+        double a = vx * vx + vy * vy;
+        double b = 2 * (x * vx + y * vy);
+        if (a < 1e-9 || b >= 0) {
+            return Double.NaN;
+        }
+        double discriminant = b * b - 4 * a * c;
+        if (discriminant < 0) {
+            return Double.NaN;
+        }
+        return (-b - Math.sqrt(discriminant)) / (2 * a);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+/**
+ * Summary of one aircraft encounter: from the first received message until the aircraft has
+ * not been heard for a while. Updated in place on the ingest thread while the encounter is open.
+ */
+public class RidGuardEncounter {
+    String hashedId;
+    long firstSeen;
+    long lastSeen;
+    long lastLogged;
+    float closestMeters = Float.NaN;
+    double maxSpeedMps = Double.NaN;
+    double altitudeMinMeters = Double.NaN;
+    double altitudeMaxMeters = Double.NaN;
+    int alertCount;
+    int updateCount;
+
+    RidGuardEncounter(String hashedId, long now) {
+        this.hashedId = hashedId;
+        this.firstSeen = now;
+        this.lastSeen = now;
+    }
+
+    void update(String hashedId, long now, float distanceMeters, double altitudeMeters,
+                double speedMps, boolean alerted) {
+        this.hashedId = hashedId;
+        lastSeen = now;
+        updateCount++;
+        if (alerted) {
+            alertCount++;
+        }
+        if (distanceMeters > 0 && !(distanceMeters >= closestMeters)) {
+            closestMeters = distanceMeters;
+        }
+        if (!Double.isNaN(speedMps) && !(speedMps <= maxSpeedMps)) {
+            maxSpeedMps = speedMps;
+        }
+        if (!Double.isNaN(altitudeMeters)) {
+            if (!(altitudeMeters >= altitudeMinMeters)) {
+                altitudeMinMeters = altitudeMeters;
+            }
+            if (!(altitudeMeters <= altitudeMaxMeters)) {
+                altitudeMaxMeters = altitudeMeters;
+            }
+        }
+    }
+
+    public String getHashedId() { return hashedId; }
+    public long getFirstSeen() { return firstSeen; }
+    public long getLastSeen() { return lastSeen; }
+    /** Closest distance to the receiver in meters, or NaN if no position was received. */
+    public float getClosestMeters() { return closestMeters; }
+    /** Highest horizontal speed in m/s, or NaN if unknown. */
+    public double getMaxSpeedMps() { return maxSpeedMps; }
+    public double getAltitudeMinMeters() { return altitudeMinMeters; }
+    public double getAltitudeMaxMeters() { return altitudeMaxMeters; }
+    public int getAlertCount() { return alertCount; }
+    public int getUpdateCount() { return updateCount; }
+}
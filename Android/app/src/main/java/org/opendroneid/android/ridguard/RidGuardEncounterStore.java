@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLite backed history of RID Guard encounters, indexed by time and closest approach distance.
+ *
+ * Encounters are queued with {@link #add(RidGuardEncounter)} from the ingest thread and written
+ * in batches, one transaction per batch, on a background thread. The query methods hit the
+ * database directly and must not be called from the main thread; {@link #export} runs them on
+ * the background thread after the queued encounters are written.
+ */
+public class RidGuardEncounterStore extends SQLiteOpenHelper {
+    private static final String TAG = "RidGuardEncounterStore";
+    private static final String DATABASE_NAME = "ridguard_encounters.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE = "encounters";
+    private static final String COL_HASHED_ID = "hashed_id";
+    private static final String COL_FIRST_SEEN = "first_seen";
+    private static final String COL_LAST_SEEN = "last_seen";
+    private static final String COL_CLOSEST = "closest_m";
+    private static final String COL_MAX_SPEED = "max_speed_mps";
+    private static final String COL_ALT_MIN = "alt_min_m";
+    private static final String COL_ALT_MAX = "alt_max_m";
+    private static final String COL_ALERT_COUNT = "alert_count";
+    private static final String COL_UPDATES = "updates";
+    private static final String[] COLUMNS = {
+            COL_HASHED_ID, COL_FIRST_SEEN, COL_LAST_SEEN, COL_CLOSEST, COL_MAX_SPEED,
+            COL_ALT_MIN, COL_ALT_MAX, COL_ALERT_COUNT, COL_UPDATES
+    };
+
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final long BATCH_DELAY_MS = 5000;
+    private static final long RETENTION_SWEEP_INTERVAL_MS = 60 * 60 * 1000L;
+
+    private final RidGuardSettings settings;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+    private List<RidGuardEncounter> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private long lastRetentionSweep;
+
+    public RidGuardEncounterStore(Context context, RidGuardSettings settings) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        this.settings = settings;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_HASHED_ID + " TEXT NOT NULL, "
+                + COL_FIRST_SEEN + " INTEGER NOT NULL, "
+                + COL_LAST_SEEN + " INTEGER NOT NULL, "
+                + COL_CLOSEST + " REAL, "
+                + COL_MAX_SPEED + " REAL, "
+                + COL_ALT_MIN + " REAL, "
+                + COL_ALT_MAX + " REAL, "
+                + COL_ALERT_COUNT + " INTEGER NOT NULL, "
+                + COL_UPDATES + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX idx_encounters_time ON " + TABLE + " (" + COL_LAST_SEEN + ")");
+        db.execSQL("CREATE INDEX idx_encounters_closest ON " + TABLE
+                + " (" + COL_CLOSEST + ", " + COL_LAST_SEEN + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion == 1) {
+            // Version 2 only dropped the unused index by hashed ID
+            db.execSQL("DROP INDEX IF EXISTS idx_encounters_id");
+            return;
+        }
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /** Queue an ended encounter for the next batch. The encounter must no longer be updated. */
+    public void add(RidGuardEncounter encounter) {
+        synchronized (lock) {
+            pending.add(encounter);
+            if (pending.size() >= MAX_BATCH_SIZE) {
+                executor.execute(this::writePending);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::writePending, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** Write all queued encounters now, e.g. when scanning stops. */
+    public void flush() {
+        executor.execute(this::writePending);
+    }
+
+    private void writePending() {
+        List<RidGuardEncounter> batch;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE + " ("
+                        + COL_HASHED_ID + ", " + COL_FIRST_SEEN + ", " + COL_LAST_SEEN + ", "
+                        + COL_CLOSEST + ", " + COL_MAX_SPEED + ", " + COL_ALT_MIN + ", "
+                        + COL_ALT_MAX + ", " + COL_ALERT_COUNT + ", " + COL_UPDATES
+                        + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                try {
+                    for (RidGuardEncounter encounter : batch) {
+                        insert.clearBindings();
+                        insert.bindString(1, encounter.getHashedId());
+                        insert.bindLong(2, encounter.getFirstSeen());
+                        insert.bindLong(3, encounter.getLastSeen());
+                        bindOptional(insert, 4, encounter.getClosestMeters());
+                        bindOptional(insert, 5, encounter.getMaxSpeedMps());
+                        bindOptional(insert, 6, encounter.getAltitudeMinMeters());
+                        bindOptional(insert, 7, encounter.getAltitudeMaxMeters());
+                        insert.bindLong(8, encounter.getAlertCount());
+                        insert.bindLong(9, encounter.getUpdateCount());
+                        insert.executeInsert();
+                    }
+                } finally {
+                    insert.close();
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastRetentionSweep > RETENTION_SWEEP_INTERVAL_MS) {
+                    long retentionMs = settings.getLogRetentionHours() * 60L * 60L * 1000L;
+                    db.delete(TABLE, COL_LAST_SEEN + " < ?",
+                            new String[]{Long.toString(now - retentionMs)});
+                    lastRetentionSweep = now;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to store " + batch.size() + " encounters", e);
+        }
+    }
+
+    private static void bindOptional(SQLiteStatement statement, int index, double value) {
+        if (Double.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    /** All encounters that came within {@code maxDistanceMeters} and ended at or after {@code sinceMs}. */
+    public List<RidGuardEncounter> queryWithin(float maxDistanceMeters, long sinceMs) {
+        return query(COL_CLOSEST + " <= ? AND " + COL_LAST_SEEN + " >= ?",
+                new String[]{Float.toString(maxDistanceMeters), Long.toString(sinceMs)},
+                COL_CLOSEST + " ASC");
+    }
+
+    /** All encounters that overlap the time range {@code [fromMs, toMs]}, most recent first. */
+    public List<RidGuardEncounter> queryBetween(long fromMs, long toMs) {
+        return query(COL_LAST_SEEN + " >= ? AND " + COL_FIRST_SEEN + " <= ?",
+                new String[]{Long.toString(fromMs), Long.toString(toMs)}, COL_LAST_SEEN + " DESC");
+    }
+
+    public interface ExportCallback {
+        /** Called on the main thread; {@code file} is null if the export failed. */
+        void onExported(File file, int count);
+    }
+
+    /**
+     * Write the encounters of the retention window to {@code file} in the format of the
+     * encounter log, most recent first. With {@code closeOnly} only the encounters that came
+     * within the alert radius are written, closest first.
+     */
+    public void export(File file, boolean closeOnly, ExportCallback callback) {
+        executor.execute(() -> {
+            writePending();
+            long now = System.currentTimeMillis();
+            long sinceMs = now - settings.getLogRetentionHours() * 60L * 60L * 1000L;
+            File result = null;
+            int count = 0;
+            try {
+                List<RidGuardEncounter> encounters = closeOnly
+                        ? queryWithin(settings.getRadiusMeters(), sinceMs)
+                        : queryBetween(sinceMs, now);
+                writeCsv(file, encounters);
+                result = file;
+                count = encounters.size();
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Unable to export encounters to " + file, e);
+            }
+            final File exported = result;
+            final int exportedCount = count;
+            handler.post(() -> callback.onExported(exported, exportedCount));
+        });
+    }
+
+    private static void writeCsv(File file, List<RidGuardEncounter> encounters) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(RidGuardLogger.ENCOUNTER_HEADER);
+            for (RidGuardEncounter encounter : encounters) {
+                line.setLength(0);
+                RidGuardLogger.appendEncounter(line, encounter);
+                writer.append(line);
+            }
+        }
+    }
+
+    private List<RidGuardEncounter> query(String selection, String[] args, String orderBy) {
+        List<RidGuardEncounter> result = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, COLUMNS, selection, args,
+                null, null, orderBy)) {
+            while (cursor.moveToNext()) {
+                RidGuardEncounter encounter = new RidGuardEncounter(cursor.getString(0), cursor.getLong(1));
+                encounter.lastSeen = cursor.getLong(2);
+                encounter.closestMeters = cursor.isNull(3) ? Float.NaN : cursor.getFloat(3);
+                encounter.maxSpeedMps = cursor.isNull(4) ? Double.NaN : cursor.getDouble(4);
+                encounter.altitudeMinMeters = cursor.isNull(5) ? Double.NaN : cursor.getDouble(5);
+                encounter.altitudeMaxMeters = cursor.isNull(6) ? Double.NaN : cursor.getDouble(6);
+                encounter.alertCount = cursor.getInt(7);
+                encounter.updateCount = cursor.getInt(8);
+                result.add(encounter);
+            }
+        }
+        return result;
+    }
+}
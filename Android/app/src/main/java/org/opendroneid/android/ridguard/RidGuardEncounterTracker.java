@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Streaming aggregation of aircraft updates for the RID Guard log. It decides when an aircraft
+ * is due for its next sample line (at most one per log interval) and collects the statistics
+ * for the encounter summary written when the aircraft leaves.
+ *
+ * Not thread safe: all calls are expected on the ingest thread.
+ */
+public class RidGuardEncounterTracker {
+    public interface Listener {
+        void onEncounterEnded(RidGuardEncounter encounter);
+    }
+
+    private final Map<Long, RidGuardEncounter> open = new HashMap<>();
+    private final Listener listener;
+
+    public RidGuardEncounterTracker(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Update the encounter of the given aircraft.
+     *
+     * @return true when a sample line should be logged for this update
+     */
+    public boolean onUpdate(long aircraftKey, String hashedId, long now, float distanceMeters,
+                            double altitudeMeters, double speedMps, boolean alerted,
+                            long logIntervalMs) {
+        RidGuardEncounter encounter = open.get(aircraftKey);
+        if (encounter == null) {
+            encounter = new RidGuardEncounter(hashedId, now);
+            open.put(aircraftKey, encounter);
+        }
+        encounter.update(hashedId, now, distanceMeters, altitudeMeters, speedMps, alerted);
+        if (encounter.lastLogged != 0 && now - encounter.lastLogged < logIntervalMs) {
+            return false;
+        }
+        encounter.lastLogged = now;
+        return true;
+    }
+
+    /**
+     * The aircraft of {@code fromKey} is now reported under {@code intoKey}. Its encounter
+     * continues there, unless that aircraft has one already; then it is dropped without a
+     * summary, as both describe the same drone.
+     */
+    public void merge(long fromKey, long intoKey) {
+        RidGuardEncounter encounter = open.remove(fromKey);
+        if (encounter != null && !open.containsKey(intoKey)) {
+            open.put(intoKey, encounter);
+        }
+    }
+
+    /** Close every encounter that has not been updated for {@code timeoutMs}. */
+    public void expire(long now, long timeoutMs) {
+        Iterator<RidGuardEncounter> iterator = open.values().iterator();
+        while (iterator.hasNext()) {
+            RidGuardEncounter encounter = iterator.next();
+            if (now - encounter.lastSeen >= timeoutMs) {
+                iterator.remove();
+                listener.onEncounterEnded(encounter);
+            }
+        }
+    }
+
+    /** Close all open encounters, e.g. when scanning stops. */
+    public void closeAll() {
+        for (RidGuardEncounter encounter : open.values()) {
+            listener.onEncounterEnded(encounter);
+        }
+        open.clear();
+    }
+}
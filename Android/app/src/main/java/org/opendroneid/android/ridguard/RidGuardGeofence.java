@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A set of RID Guard alert zones (circles and polygons, each with an alert level) and a uniform
+ * grid index over them.
+ *
+ * Zones are projected once to a local flat plane in meters around the center of all zones, which
+ * is accurate enough for site sized areas. Each grid cell lists the zones whose bounding box
+ * overlaps it, so a lookup only runs the exact point-in-zone test for a few candidates.
+ * Instances are immutable and safe to share between threads.
+ *
+ * Zones are stored as JSON:
+ * <pre>
+ * {"zones": [
+ *   {"name": "Core", "level": "critical", "type": "circle", "center": [52.1, 4.3], "radius_m": 50},
+ *   {"name": "Perimeter", "level": "warning", "type": "polygon",
+ *    "points": [[52.1, 4.3], [52.1, 4.31], [52.11, 4.31]]}
+ * ]}
+ * </pre>
+ */
+public class RidGuardGeofence {
+    public static final String FILE_NAME = "ridguard_zones.json";
+    public static final RidGuardGeofence EMPTY = new RidGuardGeofence(Collections.emptyList());
+
+    private static final double METERS_PER_DEGREE_LAT = 110_540;
+    private static final double METERS_PER_DEGREE_LON = 111_320;
+    private static final double MIN_CELL_METERS = 25;
+    private static final int MAX_CELLS_PER_SIDE = 64;
+    private static final int[] NO_ZONES = new int[0];
+
+    public static final class Zone {
+        public final String name;
+        public final RidGuardAlertLevel level;
+        /** Circle center or polygon vertices, in degrees. */
+        final double[] latitudes;
+        final double[] longitudes;
+        /** Circle radius in meters, or 0 for a polygon. */
+        final double radiusMeters;
+
+        // Local projection, filled by the index
+        double[] xs;
+        double[] ys;
+        double minX, minY, maxX, maxY;
+
+        private Zone(String name, RidGuardAlertLevel level, double[] latitudes, double[] longitudes,
+                     double radiusMeters) {
+            this.name = name;
+            this.level = level;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.radiusMeters = radiusMeters;
+        }
+
+        public static Zone circle(String name, RidGuardAlertLevel level, double latitude,
+                                  double longitude, double radiusMeters) {
+            return new Zone(name, level, new double[]{latitude}, new double[]{longitude}, radiusMeters);
+        }
+
+        public static Zone polygon(String name, RidGuardAlertLevel level, double[] latitudes,
+                                   double[] longitudes) {
+            if (latitudes.length != longitudes.length || latitudes.length < 3) {
+                throw new IllegalArgumentException("A polygon needs at least 3 points: " + name);
+            }
+            return new Zone(name, level, latitudes.clone(), longitudes.clone(), 0);
+        }
+
+        public boolean isCircle() {
+            return radiusMeters > 0;
+        }
+
+        boolean contains(double x, double y) {
+            if (x < minX || x > maxX || y < minY || y > maxY) {
+                return false;
+            }
+            if (isCircle()) {
+                double dx = x - xs[0];
+                double dy = y - ys[0];
+                return dx * dx + dy * dy <= radiusMeters * radiusMeters;
+            }
+            boolean inside = false;
+            for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+                if ((ys[i] > y) != (ys[j] > y)
+                        && x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+                    inside = !inside;
+                }
+            }
+            return inside;
+        }
+    }
+
+    private final List<Zone> zones;
+    private final double refLatitude;
+    private final double refLongitude;
+    private final double metersPerDegreeLon;
+    private final double gridMinX, gridMinY, cellSize;
+    private final int columns, rows;
+    private final int[][] cells;
+
+    public RidGuardGeofence(List<Zone> source) {
+        // Copy the zones, their projection belongs to this index
+        List<Zone> zones = new ArrayList<>(source.size());
+        for (Zone zone : source) {
+            zones.add(new Zone(zone.name, zone.level, zone.latitudes, zone.longitudes, zone.radiusMeters));
+        }
+        this.zones = Collections.unmodifiableList(zones);
+        double latSum = 0, lonSum = 0;
+        int count = 0;
+        for (Zone zone : zones) {
+            for (int i = 0; i < zone.latitudes.length; i++) {
+                latSum += zone.latitudes[i];
+                lonSum += zone.longitudes[i];
+                count++;
+            }
+        }
+        refLatitude = count > 0 ? latSum / count : 0;
+        refLongitude = count > 0 ? lonSum / count : 0;
+        metersPerDegreeLon = METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(refLatitude));
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Zone zone : zones) {
+            project(zone);
+            minX = Math.min(minX, zone.minX);
+            minY = Math.min(minY, zone.minY);
+            maxX = Math.max(maxX, zone.maxX);
+            maxY = Math.max(maxY, zone.maxY);
+        }
+        if (zones.isEmpty()) {
+            gridMinX = gridMinY = 0;
+            cellSize = MIN_CELL_METERS;
+            columns = rows = 0;
+            cells = new int[0][];
+            return;
+        }
+        gridMinX = minX;
+        gridMinY = minY;
+        cellSize = Math.max(MIN_CELL_METERS, Math.max(maxX - minX, maxY - minY) / MAX_CELLS_PER_SIDE);
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+        cells = buildCells();
+    }
+
+    private void project(Zone zone) {
+        int n = zone.latitudes.length;
+        zone.xs = new double[n];
+        zone.ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            zone.xs[i] = toX(zone.longitudes[i]);
+            zone.ys[i] = toY(zone.latitudes[i]);
+        }
+        if (zone.isCircle()) {
+            zone.minX = zone.xs[0] - zone.radiusMeters;
+            zone.maxX = zone.xs[0] + zone.radiusMeters;
+            zone.minY = zone.ys[0] - zone.radiusMeters;
+            zone.maxY = zone.ys[0] + zone.radiusMeters;
+            return;
+        }
+        zone.minX = zone.maxX = zone.xs[0];
+        zone.minY = zone.maxY = zone.ys[0];
+        for (int i = 1; i < n; i++) {
+            zone.minX = Math.min(zone.minX, zone.xs[i]);
+            zone.maxX = Math.max(zone.maxX, zone.xs[i]);
+            zone.minY = Math.min(zone.minY, zone.ys[i]);
+            zone.maxY = Math.max(zone.maxY, zone.ys[i]);
+        }
+    }
+
+    private int[][] buildCells() {
+        int[] sizes = new int[columns * rows];
+        for (Zone zone : zones) {
+            for (int row = row(zone.minY); row <= row(zone.maxY); row++) {
+                for (int column = column(zone.minX); column <= column(zone.maxX); column++) {
+                    sizes[row * columns + column]++;
+                }
+            }
+        }
+        int[][] result = new int[columns * rows][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sizes[i] == 0 ? NO_ZONES : new int[sizes[i]];
+        }
+        Arrays.fill(sizes, 0);
+        for (int z = 0; z < zones.size(); z++) {
+            Zone zone = zones.get(z);
+            for (int row = row(zone.minY); row <= row(zone.maxY); row++) {
+                for (int column = column(zone.minX); column <= column(zone.maxX); column++) {
+                    int cell = row * columns + column;
+                    result[cell][sizes[cell]++] = z;
+                }
+            }
+        }
+        return result;
+    }
+
+    private double toX(double longitude) {
+        return (longitude - refLongitude) * metersPerDegreeLon;
+    }
+
+    private double toY(double latitude) {
+        return (latitude - refLatitude) * METERS_PER_DEGREE_LAT;
+    }
+
+    private int column(double x) {
+        return Math.min(columns - 1, Math.max(0, (int) ((x - gridMinX) / cellSize)));
+    }
+
+    private int row(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) ((y - gridMinY) / cellSize)));
+    }
+
+    public boolean isEmpty() {
+        return zones.isEmpty();
+    }
+
+    public List<Zone> getZones() {
+        return zones;
+    }
+
+    /** The zone with the highest alert level containing the position, or null. Does not allocate. */
+    public Zone findHighest(double latitude, double longitude) {
+        if (zones.isEmpty()) {
+            return null;
+        }
+        double x = toX(longitude);
+        double y = toY(latitude);
+        if (x < gridMinX || y < gridMinY) {
+            return null;
+        }
+        int column = (int) ((x - gridMinX) / cellSize);
+        int row = (int) ((y - gridMinY) / cellSize);
+        if (column >= columns || row >= rows) {
+            return null;
+        }
+        Zone best = null;
+        for (int index : cells[row * columns + column]) {
+            Zone zone = zones.get(index);
+            if ((best == null || zone.level.compareTo(best.level) > 0) && zone.contains(x, y)) {
+                best = zone;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Predict which zones the straight path from the position, moving {@code vx} east and
+     * {@code vy} north in meters per second, enters within {@code horizonSeconds}. Each zone
+     * entered raises the level of {@code input}; the zone entered first goes to
+     * {@link RidGuardAlertEngine.Input#predictedZone}. Zones the position is in already are left
+     * to the Geofence rule.
+     *
+     * Only the grid cells the path crosses are visited, and each zone is tested once, in the
+     * first of its cells on the path. Does not allocate.
+     *
+     * @return seconds until the first zone is entered, NaN if none
+     */
+    double predictEntry(double latitude, double longitude, double vx, double vy, double horizonSeconds,
+                        RidGuardAlertEngine.Input input) {
+        if (zones.isEmpty()) {
+            return Double.NaN;
+        }
+        double x = toX(longitude);
+        double y = toY(latitude);
+        double gridMaxX = gridMinX + columns * cellSize;
+        double gridMaxY = gridMinY + rows * cellSize;
+        // Clip the path to the grid
+        double from = 0;
+        double to = horizonSeconds;
+        if (vx == 0) {
+            if (x < gridMinX || x > gridMaxX) {
+                return Double.NaN;
+            }
+        } else {
+            double a = (gridMinX - x) / vx;
+            double b = (gridMaxX - x) / vx;
+            from = Math.max(from, Math.min(a, b));
+            to = Math.min(to, Math.max(a, b));
+        }
+        if (vy == 0) {
+            if (y < gridMinY || y > gridMaxY) {
+                return Double.NaN;
+            }
+        } else {
+            double a = (gridMinY - y) / vy;
+            double b = (gridMaxY - y) / vy;
+            from = Math.max(from, Math.min(a, b));
+            to = Math.min(to, Math.max(a, b));
+        }
+        if (from > to) {
+            return Double.NaN;
+        }
+
+        // Walk the cells in the order the path crosses them
+        int column = column(x + vx * from);
+        int row = row(y + vy * from);
+        int stepColumn = vx > 0 ? 1 : vx < 0 ? -1 : 0;
+        int stepRow = vy > 0 ? 1 : vy < 0 ? -1 : 0;
+        double nextColumnTime = vx == 0 ? Double.POSITIVE_INFINITY
+                : (gridMinX + (column + (vx > 0 ? 1 : 0)) * cellSize - x) / vx;
+        double nextRowTime = vy == 0 ? Double.POSITIVE_INFINITY
+                : (gridMinY + (row + (vy > 0 ? 1 : 0)) * cellSize - y) / vy;
+        double columnTime = vx == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(vx);
+        double rowTime = vy == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(vy);
+
+        double first = Double.NaN;
+        int[] previous = NO_ZONES;
+        for (int steps = columns + rows; steps > 0; steps--) {
+            int[] candidates = cells[row * columns + column];
+            for (int index : candidates) {
+                // A zone covers a rectangle of cells, which the path crosses in one run
+                if (contains(previous, index)) {
+                    continue;
+                }
+                Zone zone = zones.get(index);
+                double enter = timeToEnter(zone, x, y, vx, vy, horizonSeconds);
+                if (!(enter > 0)) {
+                    continue;
+                }
+                input.raiseLevel(zone.level);
+                if (!(enter >= first)) {
+                    first = enter;
+                    input.predictedZone = zone;
+                }
+            }
+            previous = candidates;
+            if (Math.min(nextColumnTime, nextRowTime) > to) {
+                break;
+            }
+            if (nextColumnTime < nextRowTime) {
+                column += stepColumn;
+                nextColumnTime += columnTime;
+            } else {
+                row += stepRow;
+                nextRowTime += rowTime;
+            }
+            if (column < 0 || column >= columns || row < 0 || row >= rows) {
+                break;
+            }
+        }
+        return first;
+    }
+
+    private static boolean contains(int[] indexes, int index) {
+        for (int candidate : indexes) {
+            if (candidate == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Seconds until the path from the projected position {@code (x, y)} enters {@code zone}:
+     * 0 if it is inside already, NaN if it does not enter within {@code horizonSeconds}. Circles
+     * are intersected analytically, polygons edge by edge.
+     */
+    private static double timeToEnter(Zone zone, double x, double y, double vx, double vy,
+                                      double horizonSeconds) {
+        double endX = x + vx * horizonSeconds;
+        double endY = y + vy * horizonSeconds;
+        if (Math.max(x, endX) < zone.minX || Math.min(x, endX) > zone.maxX
+                || Math.max(y, endY) < zone.minY || Math.min(y, endY) > zone.maxY) {
+            return Double.NaN;
+        }
+        if (zone.contains(x, y)) {
+            return 0;
+        }
+        if (zone.isCircle()) {
+            double enter = RidGuardCpa.timeToEnter(x - zone.xs[0], y - zone.ys[0], vx, vy, zone.radiusMeters);
+            return enter <= horizonSeconds ? enter : Double.NaN;
+        }
+        // Starting outside, the first edge crossed is where the path enters
+        double first = Double.NaN;
+        for (int i = 0, j = zone.xs.length - 1; i < zone.xs.length; j = i++) {
+            double edgeX = zone.xs[i] - zone.xs[j];
+            double edgeY = zone.ys[i] - zone.ys[j];
+            double denominator = vx * edgeY - vy * edgeX;
+            if (Math.abs(denominator) < 1e-12) {
+                continue;
+            }
+            double toEdgeX = zone.xs[j] - x;
+            double toEdgeY = zone.ys[j] - y;
+            double t = (toEdgeX * edgeY - toEdgeY * edgeX) / denominator;
+            double s = (toEdgeX * vy - toEdgeY * vx) / denominator;
+            if (t >= 0 && t <= horizonSeconds && s >= 0 && s <= 1 && !(t >= first)) {
+                first = t;
+            }
+        }
+        return first;
+    }
+
+    public static RidGuardGeofence load(File file) throws IOException {
+        if (!file.exists()) {
+            return EMPTY;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) > 0) {
+                offset += read;
+            }
+        }
+        try {
+            return parse(new String(data, StandardCharsets.UTF_8));
+        } catch (JSONException | IllegalArgumentException e) {
+            throw new IOException("Invalid zone file " + file, e);
+        }
+    }
+
+    static RidGuardGeofence parse(String json) throws JSONException {
+        JSONArray array = new JSONObject(json).getJSONArray("zones");
+        List<Zone> zones = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject object = array.getJSONObject(i);
+            String name = object.optString("name", "Zone " + (i + 1));
+            RidGuardAlertLevel level = RidGuardAlertLevel.parse(
+                    object.optString("level", null), RidGuardAlertLevel.WARNING);
+            if ("circle".equals(object.getString("type"))) {
+                JSONArray center = object.getJSONArray("center");
+                zones.add(Zone.circle(name, level, center.getDouble(0), center.getDouble(1),
+                        object.getDouble("radius_m")));
+            } else {
+                JSONArray points = object.getJSONArray("points");
+                double[] latitudes = new double[points.length()];
+                double[] longitudes = new double[points.length()];
+                for (int p = 0; p < points.length(); p++) {
+                    latitudes[p] = points.getJSONArray(p).getDouble(0);
+                    longitudes[p] = points.getJSONArray(p).getDouble(1);
+                }
+                zones.add(Zone.polygon(name, level, latitudes, longitudes));
+            }
+        }
+        return new RidGuardGeofence(zones);
+    }
+
+    public void save(File file) throws IOException {
+        try {
+            JSONArray array = new JSONArray();
+            for (Zone zone : zones) {
+                JSONObject object = new JSONObject();
+                object.put("name", zone.name);
+                object.put("level", zone.level.name().toLowerCase(Locale.ROOT));
+                if (zone.isCircle()) {
+                    object.put("type", "circle");
+                    object.put("center", new JSONArray().put(zone.latitudes[0]).put(zone.longitudes[0]));
+                    object.put("radius_m", zone.radiusMeters);
+                } else {
+                    object.put("type", "polygon");
+                    JSONArray points = new JSONArray();
+                    for (int i = 0; i < zone.latitudes.length; i++) {
+                        points.put(new JSONArray().put(zone.latitudes[i]).put(zone.longitudes[i]));
+                    }
+                    object.put("points", points);
+                }
+                array.put(object);
+            }
+            File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(new JSONObject().put("zones", array).toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Unable to encode zones", e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Hashes aircraft IDs for the RID Guard logs and ignore list: the first 8 bytes of SHA-256 as
+ * hex, or of HMAC-SHA256 when a key is set so the hashes can't be reversed by hashing known IDs.
+ *
+ * Aircraft IDs never change while a drone is in range, so results are kept in a small LRU cache.
+ * Digests are reused per thread.
+ */
+public class RidGuardIdHasher {
+    private static final int CACHE_SIZE = 256;
+    private static final int HASH_BYTES = 8;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final RidGuardIdHasher INSTANCE = new RidGuardIdHasher();
+
+    private final Map<String, String> cache = new LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
+    private final ThreadLocal<KeyedMac> mac = new ThreadLocal<>();
+    private volatile byte[] key;
+
+    private static class KeyedMac {
+        final byte[] key;
+        final Mac mac;
+
+        KeyedMac(byte[] key, Mac mac) {
+            this.key = key;
+            this.mac = mac;
+        }
+    }
+
+    public static RidGuardIdHasher getInstance() {
+        return INSTANCE;
+    }
+
+    /** Switch to keyed hashing with {@code key}, or back to plain SHA-256 when null. */
+    public void setKey(byte[] key) {
+        synchronized (cache) {
+            this.key = key;
+            cache.clear();
+        }
+    }
+
+    public String hash(String id) {
+        if (id == null) {
+            return "";
+        }
+        synchronized (cache) {
+            String cached = cache.get(id);
+            if (cached != null) {
+                RidGuardMetrics.hashCacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+        long start = System.nanoTime();
+        byte[] currentKey = key;
+        String hashed = compute(id, currentKey);
+        RidGuardMetrics.hashNanos.addAndGet(System.nanoTime() - start);
+        RidGuardMetrics.hashCacheMisses.incrementAndGet();
+        synchronized (cache) {
+            // Don't cache a result computed with a key that was replaced meanwhile
+            if (currentKey == key) {
+                cache.put(id, hashed);
+            }
+        }
+        return hashed;
+    }
+
+    private String compute(String id, byte[] currentKey) {
+        byte[] input = id.getBytes(StandardCharsets.UTF_8);
+        byte[] hashed;
+        if (currentKey != null) {
+            Mac keyedMac = getMac(currentKey);
+            if (keyedMac == null) {
+                return Integer.toHexString(id.hashCode());
+            }
+            hashed = keyedMac.doFinal(input);
+        } else {
+            MessageDigest sha = digest.get();
+            if (sha == null) {
+                return Integer.toHexString(id.hashCode());
+            }
+            hashed = sha.digest(input);
+        }
+        char[] hex = new char[HASH_BYTES * 2];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            hex[i * 2] = HEX[(hashed[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hashed[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private Mac getMac(byte[] currentKey) {
+        KeyedMac keyed = mac.get();
+        if (keyed != null && keyed.key == currentKey) {
+            return keyed.mac;
+        }
+        try {
+            Mac instance = Mac.getInstance("HmacSHA256");
+            instance.init(new SecretKeySpec(currentKey, "HmacSHA256"));
+            mac.set(new KeyedMac(currentKey, instance));
+            return instance;
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+}
@@ -7,57 +7,240 @@
 package org.opendroneid.android.ridguard;
 
 import android.content.Context;
+import android.util.Log;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Writes the RID Guard CSV logs: downsampled aircraft samples and one summary line per
+ * encounter, each in its own daily file. All file work happens on a single background thread:
+ * the day files stay open between entries, lines are formatted into one reused buffer and the
+ * retention cleanup runs on a timer instead of for every line.
+ */
 public class RidGuardLogger {
+    private static final String TAG = "RidGuardLogger";
     private static final String LOG_DIR = "ridguard_logs";
     private static final String HEADER = "timestamp,hashed_id,distance_m,alt_diff_m,speed_mps,heading_deg,last_seen_ms\n";
-    private final Context context;
+    static final String ENCOUNTER_HEADER = "hashed_id,first_seen,last_seen,duration_s,closest_m,max_speed_mps,alt_min_m,alt_max_m,alert_count,updates\n";
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final long RETENTION_SWEEP_INTERVAL_MIN = 15;
+
+    private final File dir;
     private final RidGuardSettings settings;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // Only accessed from the executor thread
+    private final StringBuilder line = new StringBuilder(128);
+    private final DayFile sampleFile = new DayFile("ridguard_", HEADER);
+    private final DayFile encounterFile = new DayFile("ridguard_encounters_", ENCOUNTER_HEADER);
 
     public RidGuardLogger(Context context, RidGuardSettings settings) {
-        this.context = context.getApplicationContext();
+        this.dir = new File(context.getApplicationContext().getFilesDir(), LOG_DIR);
         this.settings = settings;
+        executor.scheduleWithFixedDelay(this::cleanupOldLogs,
+                0, RETENTION_SWEEP_INTERVAL_MIN, TimeUnit.MINUTES);
+        executor.scheduleWithFixedDelay(this::flushFiles,
+                FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void logEntry(String hashedId, float distanceMeters, Double altitudeDiff,
+                         Double speedMetersPerSec, Double headingDeg, long lastSeenMs) {
+        final long timestamp = System.currentTimeMillis();
+        executor.execute(() -> writeEntry(timestamp, hashedId, distanceMeters, altitudeDiff,
+                speedMetersPerSec, headingDeg, lastSeenMs));
+    }
+
+    /** Log the summary of an encounter that has ended. The encounter must no longer be updated. */
+    public void logEncounter(RidGuardEncounter encounter) {
+        executor.execute(() -> writeEncounter(encounter));
+    }
+
+    /** Push buffered lines to disk, e.g. when scanning stops. */
+    public void flush() {
+        executor.execute(this::flushFiles);
+    }
+
+    private void writeEntry(long timestamp, String hashedId, float distanceMeters, Double altitudeDiff,
+                            Double speedMetersPerSec, Double headingDeg, long lastSeenMs) {
+        line.setLength(0);
+        line.append(timestamp).append(',')
+                .append(hashedId).append(',');
+        appendFixed(line, distanceMeters, 1);
+        line.append(',');
+        if (altitudeDiff != null) {
+            appendFixed(line, altitudeDiff, 1);
+        }
+        line.append(',');
+        if (speedMetersPerSec != null) {
+            appendFixed(line, speedMetersPerSec, 1);
+        }
+        line.append(',');
+        if (headingDeg != null) {
+            appendFixed(line, headingDeg, 0);
+        }
+        line.append(',').append(lastSeenMs).append('\n');
+        sampleFile.append(timestamp, line);
+    }
+
+    private void writeEncounter(RidGuardEncounter encounter) {
+        line.setLength(0);
+        appendEncounter(line, encounter);
+        encounterFile.append(encounter.getLastSeen(), line);
+    }
+
+    /** Appends the {@link #ENCOUNTER_HEADER} line of {@code encounter}. */
+    static void appendEncounter(StringBuilder builder, RidGuardEncounter encounter) {
+        builder.append(encounter.getHashedId()).append(',')
+                .append(encounter.getFirstSeen()).append(',')
+                .append(encounter.getLastSeen()).append(',')
+                .append((encounter.getLastSeen() - encounter.getFirstSeen()) / 1000).append(',');
+        appendOptional(builder, encounter.getClosestMeters(), 1);
+        builder.append(',');
+        appendOptional(builder, encounter.getMaxSpeedMps(), 1);
+        builder.append(',');
+        appendOptional(builder, encounter.getAltitudeMinMeters(), 1);
+        builder.append(',');
+        appendOptional(builder, encounter.getAltitudeMaxMeters(), 1);
+        builder.append(',').append(encounter.getAlertCount())
+                .append(',').append(encounter.getUpdateCount()).append('\n');
     }
 
-    public synchronized void logEntry(String hashedId, float distanceMeters, Double altitudeDiff,
-                                      Double speedMetersPerSec, Double headingDeg, long lastSeenMs) {
-        File dir = new File(context.getFilesDir(), LOG_DIR);
-        if (!dir.exists() && !dir.mkdirs()) {
+    private static void appendOptional(StringBuilder builder, double value, int decimals) {
+        if (!Double.isNaN(value)) {
+            appendFixed(builder, value, decimals);
+        }
+    }
+
+    /** Formats like {@code String.format(Locale.US, "%.Nf", value)} for N = 0 or 1, without allocating. */
+    static void appendFixed(StringBuilder builder, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            builder.append(value);
             return;
         }
-        cleanupOldLogs(dir);
-        File file = new File(dir, getFileName());
-        boolean newFile = !file.exists();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true))) {
-            if (newFile) {
-                writer.write(HEADER);
+        long scale = decimals == 0 ? 1 : 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            builder.append('-');
+        }
+        builder.append(scaled / scale);
+        if (decimals > 0) {
+            builder.append('.').append(scaled % scale);
+        }
+    }
+
+    private void flushFiles() {
+        sampleFile.flush();
+        encounterFile.flush();
+    }
+
+    /** A log file that is kept open until the local day changes. */
+    private class DayFile {
+        private final String prefix;
+        private final String header;
+        private BufferedWriter writer;
+        private File file;
+        private long validUntil;
+        private boolean dirty;
+
+        DayFile(String prefix, String header) {
+            this.prefix = prefix;
+            this.header = header;
+        }
+
+        void append(long timestamp, CharSequence text) {
+            BufferedWriter out = getWriter(timestamp);
+            if (out == null) {
+                return;
+            }
+            try {
+                out.append(text);
+                dirty = true;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to write RID Guard log", e);
+                close();
+            }
+        }
+
+        private BufferedWriter getWriter(long timestamp) {
+            if (writer != null && timestamp < validUntil) {
+                return writer;
+            }
+            close();
+            if (!dir.exists() && !dir.mkdirs()) {
+                return null;
+            }
+            file = new File(dir, prefix + getDate(timestamp) + ".csv");
+            boolean newFile = !file.exists();
+            try {
+                writer = new BufferedWriter(new FileWriter(file, true));
+                if (newFile) {
+                    writer.write(header);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to open RID Guard log " + file, e);
+                close();
+                return null;
+            }
+            validUntil = getStartOfNextDay(timestamp);
+            return writer;
+        }
+
+        void flush() {
+            if (writer == null || !dirty) {
+                return;
+            }
+            try {
+                writer.flush();
+                dirty = false;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to flush RID Guard log", e);
+                close();
+            }
+        }
+
+        void close() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
             }
-            writer.write(String.format(Locale.US, "%d,%s,%.1f,%s,%s,%s,%d\n",
-                    System.currentTimeMillis(),
-                    hashedId,
-                    distanceMeters,
-                    altitudeDiff == null ? "" : String.format(Locale.US, "%.1f", altitudeDiff),
-                    speedMetersPerSec == null ? "" : String.format(Locale.US, "%.1f", speedMetersPerSec),
-                    headingDeg == null ? "" : String.format(Locale.US, "%.0f", headingDeg),
-                    lastSeenMs));
-        } catch (IOException ignored) {
+            writer = null;
+            file = null;
+            dirty = false;
+        }
+
+        boolean isWriting(File candidate) {
+            return writer != null && candidate.equals(file);
         }
     }
 
-    private String getFileName() {
-        String date = new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date());
-        return "ridguard_" + date + ".csv";
+    private static String getDate(long timestamp) {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date(timestamp));
     }
 
-    private void cleanupOldLogs(File dir) {
+    private static long getStartOfNextDay(long timestamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    private void cleanupOldLogs() {
         File[] files = dir.listFiles();
         if (files == null) {
             return;
@@ -65,6 +248,10 @@ public class RidGuardLogger {
         long now = System.currentTimeMillis();
         long retentionMs = settings.getLogRetentionHours() * 60L * 60L * 1000L;
         for (File file : files) {
+            // Unlinking the open file would lose the rest of the day without an error
+            if (sampleFile.isWriting(file) || encounterFile.isWriting(file)) {
+                continue;
+            }
             if (now - file.lastModified() > retentionMs) {
                 //noinspection ResultOfMethodCallIgnored
                 file.delete();
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters for the RID Guard hot paths. Cheap enough to update on every aircraft
+ * update; read them with {@link #summary()}.
+ */
+public final class RidGuardMetrics {
+    public static final AtomicLong hashCacheHits = new AtomicLong();
+    public static final AtomicLong hashCacheMisses = new AtomicLong();
+    /** Total time spent computing hashes on cache misses. */
+    public static final AtomicLong hashNanos = new AtomicLong();
+    public static final AtomicLong alertEvaluations = new AtomicLong();
+    /** Total time spent in {@link RidGuardAlertEngine#evaluate}. */
+    public static final AtomicLong alertNanos = new AtomicLong();
+
+    private RidGuardMetrics() {
+    }
+
+    public static void reset() {
+        hashCacheHits.set(0);
+        hashCacheMisses.set(0);
+        hashNanos.set(0);
+        alertEvaluations.set(0);
+        alertNanos.set(0);
+    }
+
+    public static String summary() {
+        long misses = hashCacheMisses.get();
+        long evaluations = alertEvaluations.get();
+        return String.format(Locale.US, "hash: %d hits, %d misses, %.1f us/miss; alerts: %d evaluations, %.1f us/evaluation",
+                hashCacheHits.get(), misses, misses == 0 ? 0.0 : hashNanos.get() / 1000.0 / misses,
+                evaluations, evaluations == 0 ? 0.0 : alertNanos.get() / 1000.0 / evaluations);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024 Intel Corporation
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ */
+package org.opendroneid.android.ridguard;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.osmdroid.config.Configuration;
+import org.osmdroid.config.IConfigurationProvider;
+import org.osmdroid.tileprovider.MapTileProviderBasic;
+import org.osmdroid.tileprovider.cachemanager.CacheManager;
+import org.osmdroid.tileprovider.modules.SqlTileWriter;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.tileprovider.tilesource.TileSourcePolicy;
+import org.osmdroid.tileprovider.tilesource.XYTileSource;
+import org.osmdroid.util.BoundingBox;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Offline support for the osmdroid map.
+ *
+ * Tile archives (MBTiles, osmdroid SQLite, GEMF or zip) copied into {@link #getArchiveDirectory}
+ * are picked up by osmdroid's archive provider and served before the network. Downloaded tiles
+ * go to a SQLite cache capped at the configured size; osmdroid trims it to 80% of the cap,
+ * dropping the tiles that expire first. With no network the map only reads from the archives
+ * and the cache, so it opens instantly and still works in the field.
+ *
+ * The map uses OpenStreetMap unless a tile server is configured. The OpenStreetMap servers
+ * forbid bulk downloads, so tiles around the site can only be prefetched from a configured
+ * server, whose operator is taken to allow it.
+ */
+public final class RidGuardOfflineMaps {
+    private static final String TAG = "RidGuardOfflineMaps";
+    private static final String BASE_DIRECTORY = "osmdroid";
+    private static final String CACHE_DIRECTORY = "tiles";
+    private static final String CACHE_FILE = "cache.db";
+    private static final String[] ARCHIVE_EXTENSIONS = {".mbtiles", ".sqlite", ".gemf", ".zip"};
+    private static final String CUSTOM_SOURCE_NAME = "RidGuardTiles";
+    private static final int CUSTOM_SOURCE_MAX_ZOOM = 19;
+    private static final int TILE_SIZE = 256;
+    public static final int PREFETCH_MIN_ZOOM = 10;
+    private static final int PREFETCH_MAX_TILES = 20_000;
+
+    private RidGuardOfflineMaps() {
+    }
+
+    /** Where tile archives are read from; also osmdroid's base path. */
+    public static File getArchiveDirectory(Context context) {
+        File external = context.getExternalFilesDir(null);
+        return new File(external != null ? external : context.getFilesDir(), BASE_DIRECTORY);
+    }
+
+    /**
+     * Point osmdroid at the archive directory and cap its tile cache. Call after
+     * {@link Configuration#load} and before the MapView is created.
+     */
+    public static void configure(Context context, int cacheMegabytes) {
+        File base = getArchiveDirectory(context);
+        if (!base.isDirectory() && !base.mkdirs()) {
+            Log.w(TAG, "Cannot create " + base);
+        }
+        IConfigurationProvider configuration = Configuration.getInstance();
+        configuration.setOsmdroidBasePath(base);
+        configuration.setOsmdroidTileCache(new File(base, CACHE_DIRECTORY));
+        long maxBytes = Math.max(1, cacheMegabytes) * 1024L * 1024L;
+        configuration.setTileFileSystemCacheMaxBytes(maxBytes);
+        configuration.setTileFileSystemCacheTrimBytes(maxBytes * 8 / 10);
+    }
+
+    /** Whether there are tiles to show without a network: an archive or a non-empty cache. */
+    public static boolean hasOfflineTiles(Context context) {
+        File base = getArchiveDirectory(context);
+        File[] files = base.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isArchive(file)) {
+                    return true;
+                }
+            }
+        }
+        File cache = new File(new File(base, CACHE_DIRECTORY), CACHE_FILE);
+        return cache.length() > 0;
+    }
+
+    private static boolean isArchive(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        for (String extension : ARCHIVE_EXTENSIONS) {
+            if (file.isFile() && name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The tile source of the map: OpenStreetMap, or the server at {@code tileUrl}, which serves
+     * PNG tiles as {@code <tileUrl>/<zoom>/<x>/<y>.png}.
+     */
+    public static ITileSource getTileSource(String tileUrl) {
+        if (tileUrl == null || tileUrl.trim().isEmpty()) {
+            return TileSourceFactory.MAPNIK;
+        }
+        String baseUrl = tileUrl.trim();
+        if (!baseUrl.endsWith("/")) {
+            baseUrl += "/";
+        }
+        // The default policy places no limits, including on bulk downloads
+        return new XYTileSource(CUSTOM_SOURCE_NAME, 0, CUSTOM_SOURCE_MAX_ZOOM, TILE_SIZE, ".png",
+                new String[]{baseUrl}, "", new TileSourcePolicy());
+    }
+
+    /** Whether {@code source} allows bulk downloads. The OpenStreetMap servers do not. */
+    public static boolean isPrefetchAllowed(ITileSource source) {
+        return source instanceof OnlineTileSourceBase
+                && ((OnlineTileSourceBase) source).getTileSourcePolicy().acceptsBulkDownload();
+    }
+
+    /** Number of tiles a prefetch around a point would download. */
+    public static int countPrefetchTiles(double latitude, double longitude, double radiusKm, int maxZoom) {
+        return CacheManager.possibleTilesInArea(boundingBox(latitude, longitude, radiusKm),
+                PREFETCH_MIN_ZOOM, maxZoom);
+    }
+
+    /**
+     * Download the tiles of {@code source} around a point into the cache, from
+     * {@link #PREFETCH_MIN_ZOOM} up to {@code maxZoom}. Skipped when the source forbids bulk
+     * downloads or the area is too big.
+     *
+     * @return false if the download was not started
+     */
+    public static boolean prefetch(Context context, ITileSource source, double latitude, double longitude,
+                                   double radiusKm, int maxZoom, CacheManager.CacheManagerCallback callback) {
+        if (!isPrefetchAllowed(source)) {
+            Log.w(TAG, "Tile source " + source.name() + " does not allow bulk download");
+            return false;
+        }
+        int tiles = countPrefetchTiles(latitude, longitude, radiusKm, maxZoom);
+        if (tiles > PREFETCH_MAX_TILES) {
+            Log.w(TAG, "Prefetch of " + tiles + " tiles refused");
+            return false;
+        }
+        MapTileProviderBasic provider = new MapTileProviderBasic(context.getApplicationContext(), source);
+        CacheManager cacheManager = new CacheManager(provider, new SqlTileWriter(), PREFETCH_MIN_ZOOM, maxZoom);
+        cacheManager.downloadAreaAsyncNoUI(context.getApplicationContext(),
+                boundingBox(latitude, longitude, radiusKm), PREFETCH_MIN_ZOOM, maxZoom, callback);
+        return true;
+    }
+
+    private static BoundingBox boundingBox(double latitude, double longitude, double radiusKm) {
+        double latitudeDelta = radiusKm * 1000 / RidGuardCpa.METERS_PER_DEGREE_LAT;
+        double longitudeDelta = radiusKm * 1000
+                / (RidGuardCpa.METERS_PER_DEGREE_LON * Math.max(0.01, Math.cos(Math.toRadians(latitude))));
+        return new BoundingBox(Math.min(85, latitude + latitudeDelta), longitude + longitudeDelta,
+                Math.max(-85, latitude - latitudeDelta), longitude - longitudeDelta);
+    }
+
+    public static boolean isOnline(Context context) {
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (manager == null) {
+            return false;
+        }
+        // getActiveNetwork() needs API 23
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    /**
+     * Run {@code listener} on the main thread whenever a network with internet access comes or
+     * goes, e.g. to re-check {@link #isOnline}. Stop with {@link #unwatchConnectivity}.
+     *
+     * @return the registered callback, or null if there is no connectivity service
+     */
+    public static ConnectivityManager.NetworkCallback watchConnectivity(Context context, Runnable listener) {
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (manager == null) {
+            return null;
+        }
+        Handler handler = new Handler(Looper.getMainLooper());
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                handler.post(listener);
+            }
+
+            @Override
+            public void onLost(Network network) {
+                handler.post(listener);
+            }
+        };
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        manager.registerNetworkCallback(request, callback);
+        return callback;
+    }
+
+    public static void unwatchConnectivity(Context context, ConnectivityManager.NetworkCallback callback) {
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (manager != null && callback != null) {
+            manager.unregisterNetworkCallback(callback);
+        }
+    }
+}
@@ -7,81 +7,355 @@
 package org.opendroneid.android.ridguard;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.SweepGradient;
 import android.location.Location;
+import android.os.SystemClock;
 import android.util.AttributeSet;
-import android.view.View;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import org.opendroneid.android.data.AircraftObject;
+import org.opendroneid.android.data.AircraftSnapshot;
+import org.opendroneid.android.data.DeadReckoning;
 import org.opendroneid.android.data.LocationData;
+import org.opendroneid.android.data.WorldSnapshot;
 
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Locale;
 
-public class RidGuardRadarView extends View {
-    private final Paint ringPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private final Paint dotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private final Paint centerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private List<AircraftObject> aircraft = Collections.emptyList();
-    private Location receiverLocation;
-    private int maxRangeMeters = RidGuardSettings.DEFAULT_RADIUS_METERS;
+/**
+ * Radar of the aircraft around the receiver, drawn by its own render thread on a SurfaceView so
+ * it never competes with the list or the map for the UI thread.
+ *
+ * {@link #updateData} runs on the main thread and only picks what a frame needs from the
+ * immutable {@link WorldSnapshot} into a {@link Snapshot}, which is handed over through a
+ * volatile field: the render thread never locks and never touches the aircraft objects. Every
+ * frame it moves the aircraft on by dead reckoning, so they glide between the ~1 Hz messages.
+ * Dots that overlap on screen are drawn as one cluster glyph with their count.
+ */
+public class RidGuardRadarView extends SurfaceView implements SurfaceHolder.Callback {
+    private static final String TAG = "RidGuardRadarView";
+    private static final long FRAME_INTERVAL_MS = 33;
+    private static final long SWEEP_PERIOD_MS = 4000;
+    // A heading vector shows where the aircraft will be in this many seconds
+    private static final float HEADING_SECONDS = 10f;
+    private static final float DOT_RADIUS = 8f;
+    private static final float CLUSTER_CELL_PX = 24f;
+    private static final int RINGS = 3;
+
+    /** What the render thread draws; never modified after it was published. */
+    private static final class Snapshot {
+        final double receiverLatitude;
+        final double receiverLongitude;
+        final double metersPerDegreeLon;
+        final int maxRangeMeters;
+        final String[] ringLabels = new String[RINGS];
+        final int count;
+        // Per aircraft: the motion if it can be dead reckoned, else a fixed offset in meters
+        final DeadReckoning[] motions;
+        final float[] east;
+        final float[] north;
+        final float[] velocityEast;
+        final float[] velocityNorth;
+
+        Snapshot(WorldSnapshot world, Location receiver, int maxRangeMeters) {
+            receiverLatitude = receiver != null ? receiver.getLatitude() : 0;
+            receiverLongitude = receiver != null ? receiver.getLongitude() : 0;
+            metersPerDegreeLon = RidGuardCpa.METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(receiverLatitude));
+            this.maxRangeMeters = Math.max(50, maxRangeMeters);
+            for (int ring = 1; ring <= RINGS; ring++) {
+                ringLabels[ring - 1] = formatRange(this.maxRangeMeters * ring / RINGS);
+            }
+            int size = world.size();
+            motions = new DeadReckoning[size];
+            east = new float[size];
+            north = new float[size];
+            velocityEast = new float[size];
+            velocityNorth = new float[size];
+            int n = 0;
+            for (AircraftSnapshot aircraft : world.getAircraft()) {
+                LocationData location = aircraft.getLocation();
+                if (location == null) {
+                    continue;
+                }
+                if (receiver != null && aircraft.getMotion() != null) {
+                    // The filtered position doesn't jitter with the GNSS noise
+                    motions[n] = aircraft.getMotion();
+                    velocityEast[n] = (float) aircraft.getVelocityEast();
+                    velocityNorth[n] = (float) aircraft.getVelocityNorth();
+                } else {
+                    float distance = location.getDistance();
+                    if (distance <= 0) {
+                        continue;
+                    }
+                    float bearing = 0f;
+                    if (receiver != null) {
+                        Location droneLocation = new Location("drone");
+                        droneLocation.setLatitude(location.getLatitude());
+                        droneLocation.setLongitude(location.getLongitude());
+                        bearing = receiver.bearingTo(droneLocation);
+                    }
+                    double radians = Math.toRadians(bearing);
+                    east[n] = (float) (distance * Math.sin(radians));
+                    north[n] = (float) (distance * Math.cos(radians));
+                }
+                n++;
+            }
+            count = n;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(WorldSnapshot.EMPTY, null, RidGuardSettings.DEFAULT_RADIUS_METERS);
+    private RenderThread renderThread;
+    private final int backgroundColor;
 
     public RidGuardRadarView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
-        ringPaint.setStyle(Paint.Style.STROKE);
-        ringPaint.setColor(Color.GRAY);
-        ringPaint.setStrokeWidth(2f);
-        dotPaint.setStyle(Paint.Style.FILL);
-        dotPaint.setColor(Color.RED);
-        centerPaint.setStyle(Paint.Style.FILL);
-        centerPaint.setColor(Color.WHITE);
+        TypedArray attributes = context.obtainStyledAttributes(new int[]{android.R.attr.colorBackground});
+        backgroundColor = attributes.getColor(0, Color.BLACK);
+        attributes.recycle();
+        getHolder().addCallback(this);
+    }
+
+    /** Hand the latest aircraft to the render thread. Main thread only. */
+    public void updateData(WorldSnapshot world, Location receiverLocation, int maxRangeMeters) {
+        snapshot = new Snapshot(world, receiverLocation, maxRangeMeters);
+    }
+
+    @Override
+    public void surfaceCreated(@NonNull SurfaceHolder holder) {
+        renderThread = new RenderThread(holder);
+        renderThread.start();
     }
 
-    public void updateData(List<AircraftObject> aircraft, Location receiverLocation, int maxRangeMeters) {
-        this.aircraft = aircraft != null ? aircraft : Collections.emptyList();
-        this.receiverLocation = receiverLocation;
-        this.maxRangeMeters = Math.max(50, maxRangeMeters);
-        invalidate();
+    @Override
+    public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
+        if (renderThread != null) {
+            renderThread.setSize(width, height);
+        }
     }
 
     @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-        float cx = getWidth() / 2f;
-        float cy = getHeight() / 2f;
-        float radius = Math.min(cx, cy) * 0.9f;
-
-        canvas.drawCircle(cx, cy, radius, ringPaint);
-        canvas.drawCircle(cx, cy, radius * 0.66f, ringPaint);
-        canvas.drawCircle(cx, cy, radius * 0.33f, ringPaint);
-        canvas.drawCircle(cx, cy, 6f, centerPaint);
-
-        for (AircraftObject aircraftObject : aircraft) {
-            LocationData location = aircraftObject.getLocation();
-            if (location == null) {
-                continue;
+    public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
+        if (renderThread == null) {
+            return;
+        }
+        // The surface must not be drawn on once this returns
+        renderThread.quit();
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        renderThread = null;
+    }
+
+    private final class RenderThread extends Thread {
+        private final SurfaceHolder holder;
+        private final Paint ringPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint sweepPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint dotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint headingPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint clusterTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint centerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Matrix sweepMatrix = new Matrix();
+        private volatile boolean running = true;
+        private volatile int width;
+        private volatile int height;
+        private int sweepWidth;
+        private int sweepHeight;
+
+        // Per frame scratch space: screen positions and the cluster grid over them
+        private float[] x = new float[16];
+        private float[] y = new float[16];
+        private int[] cellOf = new int[16];
+        private int[] cellCount = new int[0];
+        private float[] cellX = new float[0];
+        private float[] cellY = new float[0];
+
+        RenderThread(SurfaceHolder holder) {
+            super(TAG);
+            this.holder = holder;
+            ringPaint.setStyle(Paint.Style.STROKE);
+            ringPaint.setColor(Color.GRAY);
+            ringPaint.setStrokeWidth(2f);
+            labelPaint.setColor(Color.GRAY);
+            labelPaint.setTextSize(22f);
+            sweepPaint.setStyle(Paint.Style.FILL);
+            dotPaint.setStyle(Paint.Style.FILL);
+            dotPaint.setColor(Color.RED);
+            headingPaint.setStyle(Paint.Style.STROKE);
+            headingPaint.setColor(Color.RED);
+            headingPaint.setStrokeWidth(3f);
+            clusterTextPaint.setColor(Color.WHITE);
+            clusterTextPaint.setTextAlign(Paint.Align.CENTER);
+            clusterTextPaint.setTextSize(22f);
+            centerPaint.setStyle(Paint.Style.FILL);
+            centerPaint.setColor(Color.WHITE);
+        }
+
+        void setSize(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        void quit() {
+            running = false;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long start = SystemClock.uptimeMillis();
+                Canvas canvas = null;
+                try {
+                    canvas = holder.lockCanvas();
+                    if (canvas != null) {
+                        drawFrame(canvas, snapshot, start);
+                    }
+                } catch (IllegalStateException | IllegalArgumentException e) {
+                    Log.w(TAG, "Cannot draw radar frame", e);
+                } finally {
+                    if (canvas != null) {
+                        holder.unlockCanvasAndPost(canvas);
+                    }
+                }
+                long delay = FRAME_INTERVAL_MS - (SystemClock.uptimeMillis() - start);
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void drawFrame(Canvas canvas, Snapshot snapshot, long uptimeMs) {
+            int width = this.width;
+            int height = this.height;
+            if (width == 0 || height == 0) {
+                width = canvas.getWidth();
+                height = canvas.getHeight();
+            }
+            float cx = width / 2f;
+            float cy = height / 2f;
+            float radius = Math.min(cx, cy) * 0.9f;
+            canvas.drawColor(backgroundColor);
+
+            drawSweep(canvas, cx, cy, radius, width, height, uptimeMs);
+            for (int ring = 1; ring <= RINGS; ring++) {
+                float r = radius * ring / RINGS;
+                canvas.drawCircle(cx, cy, r, ringPaint);
+                canvas.drawText(snapshot.ringLabels[ring - 1], cx + 4, cy - r + 22, labelPaint);
             }
-            float distance = location.getDistance();
-            if (distance <= 0) {
-                continue;
+            canvas.drawCircle(cx, cy, 6f, centerPaint);
+
+            long now = SystemClock.elapsedRealtimeNanos();
+            float pixelsPerMeter = radius / snapshot.maxRangeMeters;
+            int count = snapshot.count;
+            ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                float east = snapshot.east[i];
+                float north = snapshot.north[i];
+                DeadReckoning motion = snapshot.motions[i];
+                if (motion != null) {
+                    east = (float) ((motion.getLongitude(now) - snapshot.receiverLongitude) * snapshot.metersPerDegreeLon);
+                    north = (float) ((motion.getLatitude(now) - snapshot.receiverLatitude) * RidGuardCpa.METERS_PER_DEGREE_LAT);
+                }
+                // Aircraft beyond the range stay on the outer ring
+                float distance = (float) Math.hypot(east, north);
+                float scale = distance > snapshot.maxRangeMeters ? snapshot.maxRangeMeters / distance : 1f;
+                x[i] = cx + east * scale * pixelsPerMeter;
+                y[i] = cy - north * scale * pixelsPerMeter;
             }
-            float normalized = Math.min(distance / maxRangeMeters, 1f);
-            float bearing = 0f;
-            if (receiverLocation != null) {
-                Location droneLocation = new Location("drone");
-                droneLocation.setLatitude(location.getLatitude());
-                droneLocation.setLongitude(location.getLongitude());
-                bearing = receiverLocation.bearingTo(droneLocation);
+            drawAircraft(canvas, snapshot, count, pixelsPerMeter, width, height);
+        }
+
+        /** A bright line turning once per SWEEP_PERIOD_MS with a fading trail behind it. */
+        private void drawSweep(Canvas canvas, float cx, float cy, float radius, int width, int height, long uptimeMs) {
+            if (sweepWidth != width || sweepHeight != height) {
+                sweepWidth = width;
+                sweepHeight = height;
+                sweepPaint.setShader(new SweepGradient(cx, cy,
+                        new int[]{Color.TRANSPARENT, Color.TRANSPARENT, 0x6000ff00},
+                        new float[]{0f, 0.75f, 1f}));
             }
-            double radians = Math.toRadians(bearing - 90);
-            float r = radius * normalized;
-            float x = cx + (float) (r * Math.cos(radians));
-            float y = cy + (float) (r * Math.sin(radians));
-            canvas.drawCircle(x, y, 8f, dotPaint);
+            float angle = (uptimeMs % SWEEP_PERIOD_MS) * 360f / SWEEP_PERIOD_MS;
+            sweepMatrix.setRotate(angle - 90, cx, cy);
+            sweepPaint.getShader().setLocalMatrix(sweepMatrix);
+            canvas.drawCircle(cx, cy, radius, sweepPaint);
         }
+
+        /** Dots with heading vectors; dots sharing a grid cell are drawn as one cluster glyph. */
+        private void drawAircraft(Canvas canvas, Snapshot snapshot, int count, float pixelsPerMeter,
+                                  int width, int height) {
+            int columns = (int) (width / CLUSTER_CELL_PX) + 1;
+            int rows = (int) (height / CLUSTER_CELL_PX) + 1;
+            if (cellCount.length < columns * rows) {
+                cellCount = new int[columns * rows];
+                cellX = new float[columns * rows];
+                cellY = new float[columns * rows];
+            }
+            for (int i = 0; i < count; i++) {
+                int column = Math.max(0, Math.min(columns - 1, (int) (x[i] / CLUSTER_CELL_PX)));
+                int row = Math.max(0, Math.min(rows - 1, (int) (y[i] / CLUSTER_CELL_PX)));
+                int cell = row * columns + column;
+                cellOf[i] = cell;
+                cellCount[cell]++;
+                cellX[cell] += x[i];
+                cellY[cell] += y[i];
+            }
+            for (int i = 0; i < count; i++) {
+                int cell = cellOf[i];
+                int members = cellCount[cell];
+                if (members == 1) {
+                    if (snapshot.motions[i] != null) {
+                        float length = HEADING_SECONDS * pixelsPerMeter;
+                        canvas.drawLine(x[i], y[i], x[i] + snapshot.velocityEast[i] * length,
+                                y[i] - snapshot.velocityNorth[i] * length, headingPaint);
+                    }
+                    canvas.drawCircle(x[i], y[i], DOT_RADIUS, dotPaint);
+                } else if (members > 1) {
+                    float clusterX = cellX[cell] / members;
+                    float clusterY = cellY[cell] / members;
+                    canvas.drawCircle(clusterX, clusterY, DOT_RADIUS * 2, dotPaint);
+                    canvas.drawText(String.valueOf(members), clusterX, clusterY + 8, clusterTextPaint);
+                    // Drawn once, the other members of the cell skip it
+                    cellCount[cell] = -1;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int cell = cellOf[i];
+                cellCount[cell] = 0;
+                cellX[cell] = 0;
+                cellY[cell] = 0;
+            }
+        }
+
+        private void ensureCapacity(int count) {
+            if (x.length < count) {
+                int size = Math.max(count, x.length * 2);
+                x = Arrays.copyOf(x, size);
+                y = Arrays.copyOf(y, size);
+                cellOf = Arrays.copyOf(cellOf, size);
+            }
+        }
+    }
+
+    private static String formatRange(int meters) {
+        return meters >= 1000
+                ? String.format(Locale.US, "%.1f km", meters / 1000f)
+                : String.format(Locale.US, "%d m", meters);
     }
 }
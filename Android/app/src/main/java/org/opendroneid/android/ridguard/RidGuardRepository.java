@@ -13,6 +13,7 @@ import android.content.pm.PackageManager;
 import android.location.Location;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
@@ -33,15 +34,31 @@ import org.opendroneid.android.bluetooth.WiFiBeaconScanner;
 import org.opendroneid.android.bluetooth.WiFiNaNScanner;
 import org.opendroneid.android.data.AircraftObject;
 import org.opendroneid.android.data.LocationData;
+import org.opendroneid.android.data.TrackFilter;
+
+import java.io.File;
+import java.io.IOException;
 
 public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
     private static final String TAG = "RidGuardRepository";
+    private static final long ENCOUNTER_TIMEOUT_MS = 60_000L;
+    private static final long ENCOUNTER_SWEEP_INTERVAL_MS = 10_000L;
     private static RidGuardRepository instance;
 
     private final Context context;
     private final RidGuardSettings settings;
     private final RidGuardAlertManager alertManager;
     private final RidGuardLogger logger;
+    private final RidGuardEncounterStore encounterStore;
+    private final RidGuardEncounterTracker encounterTracker;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable encounterSweep = new Runnable() {
+        @Override
+        public void run() {
+            encounterTracker.expire(System.currentTimeMillis(), ENCOUNTER_TIMEOUT_MS);
+            handler.postDelayed(this, ENCOUNTER_SWEEP_INTERVAL_MS);
+        }
+    };
 
     private OpenDroneIdDataManager dataManager;
     private BluetoothScanner bluetoothScanner;
@@ -52,9 +69,10 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
     private LocationCallback locationCallback;
     private LocationRequest locationRequest;
     private Location receiverLocation;
+    private int uiClients;
+    private volatile long lastScanTime;
 
     private final MutableLiveData<Boolean> scanning = new MutableLiveData<>(false);
-    private final MutableLiveData<Long> lastScanTime = new MutableLiveData<>(0L);
 
     public static synchronized RidGuardRepository getInstance(Context context) {
         if (instance == null) {
@@ -68,8 +86,38 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
         this.settings = new RidGuardSettings(context);
         this.alertManager = new RidGuardAlertManager(context, settings);
         this.logger = new RidGuardLogger(context, settings);
+        this.encounterStore = new RidGuardEncounterStore(context, settings);
+        this.encounterTracker = new RidGuardEncounterTracker(encounter -> {
+            logger.logEncounter(encounter);
+            encounterStore.add(encounter);
+        });
         this.dataManager = new OpenDroneIdDataManager(this);
+        // Headless until a screen attaches: no LiveData updates for the aircraft
+        this.dataManager.setUiAttached(false);
         this.fusedLocationProviderClient = LocationServices.getFusedLocationProviderClient(context);
+        reloadZones();
+    }
+
+    /** The file holding the geofence zones, see {@link RidGuardGeofence}. */
+    public File getZonesFile() {
+        return new File(context.getFilesDir(), RidGuardGeofence.FILE_NAME);
+    }
+
+    /** Load the geofence zones from {@link #getZonesFile()} in the background. */
+    public void reloadZones() {
+        new Thread(() -> {
+            try {
+                RidGuardGeofence geofence = RidGuardGeofence.load(getZonesFile());
+                alertManager.setGeofence(geofence);
+                Log.d(TAG, "Loaded " + geofence.getZones().size() + " RID Guard zones.");
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to load RID Guard zones", e);
+            }
+        }, "RidGuardZones").start();
+    }
+
+    public RidGuardGeofence getGeofence() {
+        return alertManager.getGeofence();
     }
 
     public OpenDroneIdDataManager getDataManager() {
@@ -80,10 +128,27 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
         return scanning;
     }
 
-    public LiveData<Long> getLastScanTime() {
+    /** When the last message was received, in milliseconds since the epoch, or 0. */
+    public long getLastScanTime() {
         return lastScanTime;
     }
 
+    /**
+     * A screen starts showing the aircraft, so their LiveData views are kept up to date. Every
+     * call must be paired with {@link #detachUi()}. Main thread only.
+     */
+    public void attachUi() {
+        if (uiClients++ == 0) {
+            dataManager.setUiAttached(true);
+        }
+    }
+
+    public void detachUi() {
+        if (--uiClients == 0) {
+            dataManager.setUiAttached(false);
+        }
+    }
+
     public Location getReceiverLocation() {
         return receiverLocation;
     }
@@ -92,6 +157,10 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
         return settings;
     }
 
+    public RidGuardEncounterStore getEncounterStore() {
+        return encounterStore;
+    }
+
     @SuppressLint("MissingPermission")
     public void startScanning() {
         if (Boolean.TRUE.equals(scanning.getValue())) {
@@ -109,6 +178,7 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             wiFiBeaconScanner.startCountDownTimer();
         }
+        handler.postDelayed(encounterSweep, ENCOUNTER_SWEEP_INTERVAL_MS);
         scanning.postValue(true);
         Log.d(TAG, "RID Guard scanning started.");
     }
@@ -129,23 +199,42 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
         if (fusedLocationProviderClient != null && locationCallback != null) {
             fusedLocationProviderClient.removeLocationUpdates(locationCallback);
         }
+        handler.removeCallbacks(encounterSweep);
+        alertManager.release();
+        encounterTracker.closeAll();
+        logger.flush();
+        encounterStore.flush();
         scanning.postValue(false);
-        Log.d(TAG, "RID Guard scanning stopped.");
+        Log.d(TAG, "RID Guard scanning stopped. " + RidGuardMetrics.summary()
+                + "; arrivals: " + dataManager.getArrivalSummary());
     }
 
     @Override
     public void onAircraftUpdated(AircraftObject object) {
-        lastScanTime.postValue(System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        lastScanTime = now;
         LocationData location = object.getLocation();
-        float distanceMeters = location != null ? location.getDistance() : 0f;
+        float rawDistanceMeters = location != null ? location.getDistance() : 0f;
+        TrackFilter track = object.getTrack();
+        // Alerts use the filtered track, so they don't flap at the radius on GNSS noise
+        float distanceMeters = getFilteredDistanceMeters(track, rawDistanceMeters);
         Double altitudeDiffMeters = getAltitudeDiffMeters(location);
         String aircraftId = RidGuardDroneUtils.getPrimaryId(object);
         String hashed = RidGuardSettings.hashId(aircraftId);
         Double speed = location != null ? location.getSpeedHorizontal() : null;
         Double heading = location != null ? location.getDirection() : null;
         long lastSeen = object.getConnection() != null ? object.getConnection().lastSeen : 0L;
-        alertManager.maybeAlert(object, aircraftId, altitudeDiffMeters, distanceMeters);
-        logger.logEntry(hashed, distanceMeters, altitudeDiffMeters, speed, heading, lastSeen);
+        double speedMps = track.isValid() ? track.getSpeedHorizontal()
+                : speed != null && speed != 255 ? speed : Double.NaN;
+        boolean alerted = alertManager.maybeAlert(object, aircraftId, altitudeDiffMeters, distanceMeters, speedMps);
+        // Log volume follows the encounters: at most one sample per aircraft and log interval,
+        // plus a summary line once the aircraft has left (see RidGuardEncounterTracker)
+        boolean logSample = encounterTracker.onUpdate(object.getMacAddress(), hashed, now,
+                distanceMeters, getDroneAltitudeMeters(location), speedMps, alerted,
+                settings.getLogIntervalSeconds() * 1000L);
+        if (logSample) {
+            logger.logEntry(hashed, rawDistanceMeters, altitudeDiffMeters, speed, heading, lastSeen);
+        }
     }
 
     @Override
@@ -153,18 +242,41 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
         onAircraftUpdated(object);
     }
 
+    @Override
+    public void onAircraftMerged(AircraftObject from, AircraftObject into) {
+        encounterTracker.merge(from.getMacAddress(), into.getMacAddress());
+    }
+
+    private float getFilteredDistanceMeters(TrackFilter track, float rawDistanceMeters) {
+        if (receiverLocation == null || !track.isValid()) {
+            return rawDistanceMeters;
+        }
+        double latitude = receiverLocation.getLatitude();
+        double x = RidGuardCpa.toX(latitude, receiverLocation.getLongitude(), track.getLongitude());
+        double y = RidGuardCpa.toY(latitude, track.getLatitude());
+        return (float) Math.hypot(x, y);
+    }
+
     private Double getAltitudeDiffMeters(LocationData locationData) {
-        if (locationData == null || receiverLocation == null) {
+        if (receiverLocation == null) {
+            return null;
+        }
+        double droneAltitude = getDroneAltitudeMeters(locationData);
+        if (Double.isNaN(droneAltitude)) {
             return null;
         }
+        return droneAltitude - receiverLocation.getAltitude();
+    }
+
+    private static double getDroneAltitudeMeters(LocationData locationData) {
+        if (locationData == null) {
+            return Double.NaN;
+        }
         double droneAltitude = locationData.getAltitudeGeodetic();
         if (droneAltitude == -1000) {
             droneAltitude = locationData.getAltitudePressure();
         }
-        if (droneAltitude == -1000) {
-            return null;
-        }
-        return droneAltitude - receiverLocation.getAltitude();
+        return droneAltitude == -1000 ? Double.NaN : droneAltitude;
     }
 
     private void initLocationUpdates() {
@@ -183,6 +295,11 @@ public class RidGuardRepository extends OpenDroneIdDataManager.Callback {
                 }
                 receiverLocation = locationResult.getLastLocation();
                 dataManager.receiverLocation = receiverLocation;
+                if (receiverLocation != null) {
+                    alertManager.setReceiverPosition(receiverLocation.getLatitude(), receiverLocation.getLongitude());
+                }
+                // The radar is centered on the receiver
+                dataManager.markDirty();
             }
         };
         fusedLocationProviderClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
@@ -12,21 +12,33 @@ import android.text.TextUtils;
 
 import androidx.preference.PreferenceManager;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.security.SecureRandom;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
+/**
+ * RID Guard preferences. Reads go through an immutable {@link Snapshot} that is rebuilt only when
+ * a preference changes, so the per update paths never touch SharedPreferences or parse strings.
+ */
 public class RidGuardSettings {
     public static final int DEFAULT_RADIUS_METERS = 200;
     public static final int DEFAULT_COOLDOWN_SECONDS = 30;
     public static final int DEFAULT_LOG_RETENTION_HOURS = 48;
+    public static final int DEFAULT_LOG_INTERVAL_SECONDS = 5;
     public static final int DEFAULT_ALTITUDE_MIN = -50;
     public static final int DEFAULT_ALTITUDE_MAX = 150;
+    public static final int DEFAULT_SPEED_MIN = 0;
+    public static final int DEFAULT_ACTIVE_FROM_HOUR = 0;
+    public static final int DEFAULT_ACTIVE_TO_HOUR = 24;
+    public static final int DEFAULT_PREDICT_SECONDS = 0;
+    public static final int DEFAULT_TILE_CACHE_MB = 200;
+    public static final int DEFAULT_PREFETCH_RADIUS_KM = 2;
+    public static final int DEFAULT_PREFETCH_MAX_ZOOM = 16;
 
     private static final String PREF_RADIUS_METERS = "ridguard_radius_m";
     private static final String PREF_ALTITUDE_ENABLED = "ridguard_altitude_enabled";
@@ -35,47 +47,227 @@ public class RidGuardSettings {
     private static final String PREF_COOLDOWN_SECONDS = "ridguard_cooldown_s";
     private static final String PREF_SILENCE_UNTIL = "ridguard_silence_until";
     private static final String PREF_IGNORE_IDS = "ridguard_ignore_ids";
+    private static final String PREF_WATCH_IDS = "ridguard_watch_ids";
+    private static final String PREF_SPEED_MIN = "ridguard_speed_min";
+    private static final String PREF_ACTIVE_FROM_HOUR = "ridguard_active_from_h";
+    private static final String PREF_ACTIVE_TO_HOUR = "ridguard_active_to_h";
+    private static final String PREF_PREDICT_SECONDS = "ridguard_predict_seconds";
     private static final String PREF_LOG_RETENTION_HOURS = "ridguard_log_retention_hours";
+    private static final String PREF_LOG_INTERVAL_SECONDS = "ridguard_log_interval_s";
     private static final String PREF_MAP_ENABLED = "ridguard_map_enabled";
+    private static final String PREF_TILE_CACHE_MB = "ridguard_tile_cache_mb";
+    private static final String PREF_TILE_URL = "ridguard_tile_url";
+    private static final String PREF_PREFETCH_RADIUS_KM = "ridguard_prefetch_radius_km";
+    private static final String PREF_PREFETCH_MAX_ZOOM = "ridguard_prefetch_max_zoom";
+    private static final String PREF_HASH_KEYED = "ridguard_hash_keyed";
+    private static final String PREF_HASH_KEY = "ridguard_hash_key";
+    private static final int HASH_KEY_BYTES = 32;
 
     private static final String PREF_IGNORE_UNTIL_PREFIX = "ridguard_ignore_until_";
 
     private final SharedPreferences preferences;
+    private volatile Snapshot snapshot;
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener changeListener = (prefs, key) -> {
+        if (PREF_HASH_KEYED.equals(key)) {
+            applyHashKey();
+            clearTemporaryIgnores();
+        }
+        snapshot = new Snapshot(this);
+    };
+
+    /** Immutable view of all RID Guard settings at one point in time. */
+    public static final class Snapshot {
+        public final int radiusMeters;
+        public final boolean altitudeWindowEnabled;
+        public final int altitudeMinMeters;
+        public final int altitudeMaxMeters;
+        public final int cooldownSeconds;
+        /** Minimum horizontal speed in m/s for an alert, 0 for any speed. */
+        public final int speedMinMps;
+        /** Local hours during which alerts are raised, {@code [from, to)}; wraps past midnight if from > to. */
+        public final int activeFromHour;
+        public final int activeToHour;
+        /** Alert when a breach is predicted within this many seconds, 0 to disable. */
+        public final int predictSeconds;
+        public final int logRetentionHours;
+        public final int logIntervalSeconds;
+        public final boolean mapEnabled;
+        /** Size cap of the downloaded map tile cache. */
+        public final int tileCacheMb;
+        /** Base URL of the tile server, empty for OpenStreetMap. */
+        public final String tileUrl;
+        public final int prefetchRadiusKm;
+        public final int prefetchMaxZoom;
+        public final boolean keyedHashEnabled;
+        public final long silenceUntil;
+        /** Manually ignored IDs, lower case, looked up ignoring case. */
+        private final Set<String> manualIgnoreIds;
+        /** IDs that alert at any distance, lower case. */
+        public final Set<String> watchIds;
+        /** End of temporary ignores by hashed ID. */
+        private final Map<String, Long> ignoreUntilByHash;
+
+        private Snapshot(RidGuardSettings settings) {
+            SharedPreferences preferences = settings.preferences;
+            radiusMeters = settings.getIntPref(PREF_RADIUS_METERS, DEFAULT_RADIUS_METERS);
+            altitudeWindowEnabled = preferences.getBoolean(PREF_ALTITUDE_ENABLED, false);
+            altitudeMinMeters = settings.getIntPref(PREF_ALTITUDE_MIN, DEFAULT_ALTITUDE_MIN);
+            altitudeMaxMeters = settings.getIntPref(PREF_ALTITUDE_MAX, DEFAULT_ALTITUDE_MAX);
+            cooldownSeconds = settings.getIntPref(PREF_COOLDOWN_SECONDS, DEFAULT_COOLDOWN_SECONDS);
+            speedMinMps = settings.getIntPref(PREF_SPEED_MIN, DEFAULT_SPEED_MIN);
+            activeFromHour = settings.getIntPref(PREF_ACTIVE_FROM_HOUR, DEFAULT_ACTIVE_FROM_HOUR);
+            activeToHour = settings.getIntPref(PREF_ACTIVE_TO_HOUR, DEFAULT_ACTIVE_TO_HOUR);
+            predictSeconds = settings.getIntPref(PREF_PREDICT_SECONDS, DEFAULT_PREDICT_SECONDS);
+            logRetentionHours = settings.getIntPref(PREF_LOG_RETENTION_HOURS, DEFAULT_LOG_RETENTION_HOURS);
+            logIntervalSeconds = settings.getIntPref(PREF_LOG_INTERVAL_SECONDS, DEFAULT_LOG_INTERVAL_SECONDS);
+            mapEnabled = preferences.getBoolean(PREF_MAP_ENABLED, false);
+            tileCacheMb = settings.getIntPref(PREF_TILE_CACHE_MB, DEFAULT_TILE_CACHE_MB);
+            tileUrl = preferences.getString(PREF_TILE_URL, "");
+            prefetchRadiusKm = settings.getIntPref(PREF_PREFETCH_RADIUS_KM, DEFAULT_PREFETCH_RADIUS_KM);
+            prefetchMaxZoom = settings.getIntPref(PREF_PREFETCH_MAX_ZOOM, DEFAULT_PREFETCH_MAX_ZOOM);
+            keyedHashEnabled = preferences.getBoolean(PREF_HASH_KEYED, false);
+            silenceUntil = preferences.getLong(PREF_SILENCE_UNTIL, 0L);
+            // Compares in place, so the lookup for every update does not lower case the ID
+            Set<String> ignoreIds = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            ignoreIds.addAll(parseIds(preferences.getString(PREF_IGNORE_IDS, "")));
+            manualIgnoreIds = ignoreIds;
+            watchIds = Collections.unmodifiableSet(parseIds(preferences.getString(PREF_WATCH_IDS, "")));
+
+            Map<String, Long> ignoreUntil = new HashMap<>();
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+                if (entry.getKey().startsWith(PREF_IGNORE_UNTIL_PREFIX) && entry.getValue() instanceof Long
+                        && (Long) entry.getValue() > now) {
+                    ignoreUntil.put(entry.getKey().substring(PREF_IGNORE_UNTIL_PREFIX.length()),
+                            (Long) entry.getValue());
+                }
+            }
+            ignoreUntilByHash = ignoreUntil;
+        }
+
+        public boolean isSilenced(long now) {
+            return now < silenceUntil;
+        }
+
+        public boolean isManuallyIgnored(String id) {
+            return id != null && !manualIgnoreIds.isEmpty() && manualIgnoreIds.contains(id);
+        }
+
+        public boolean isTemporarilyIgnored(String id, long now) {
+            if (id == null || ignoreUntilByHash.isEmpty()) {
+                return false;
+            }
+            Long until = ignoreUntilByHash.get(hashId(id));
+            return until != null && until > now;
+        }
+    }
 
     public RidGuardSettings(Context context) {
         this.preferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        applyHashKey();
+        snapshot = new Snapshot(this);
+        preferences.registerOnSharedPreferenceChangeListener(changeListener);
+    }
+
+    /** The current settings; a new snapshot is published whenever a preference changes. */
+    public Snapshot getSnapshot() {
+        return snapshot;
     }
 
     public int getRadiusMeters() {
-        return getIntPref(PREF_RADIUS_METERS, DEFAULT_RADIUS_METERS);
+        return snapshot.radiusMeters;
     }
 
     public boolean isAltitudeWindowEnabled() {
-        return preferences.getBoolean(PREF_ALTITUDE_ENABLED, false);
+        return snapshot.altitudeWindowEnabled;
     }
 
     public int getAltitudeMinMeters() {
-        return getIntPref(PREF_ALTITUDE_MIN, DEFAULT_ALTITUDE_MIN);
+        return snapshot.altitudeMinMeters;
     }
 
     public int getAltitudeMaxMeters() {
-        return getIntPref(PREF_ALTITUDE_MAX, DEFAULT_ALTITUDE_MAX);
+        return snapshot.altitudeMaxMeters;
     }
 
     public int getCooldownSeconds() {
-        return getIntPref(PREF_COOLDOWN_SECONDS, DEFAULT_COOLDOWN_SECONDS);
+        return snapshot.cooldownSeconds;
     }
 
     public int getLogRetentionHours() {
-        return getIntPref(PREF_LOG_RETENTION_HOURS, DEFAULT_LOG_RETENTION_HOURS);
+        return snapshot.logRetentionHours;
+    }
+
+    public int getLogIntervalSeconds() {
+        return snapshot.logIntervalSeconds;
     }
 
     public boolean isMapEnabled() {
-        return preferences.getBoolean(PREF_MAP_ENABLED, false);
+        return snapshot.mapEnabled;
+    }
+
+    public int getTileCacheMb() {
+        return snapshot.tileCacheMb;
+    }
+
+    public String getTileUrl() {
+        return snapshot.tileUrl;
+    }
+
+    public int getPrefetchRadiusKm() {
+        return snapshot.prefetchRadiusKm;
+    }
+
+    public int getPrefetchMaxZoom() {
+        return snapshot.prefetchMaxZoom;
+    }
+
+    /** Whether IDs are hashed with a per install key instead of plain SHA-256. */
+    public boolean isKeyedHashEnabled() {
+        return snapshot.keyedHashEnabled;
+    }
+
+    private void applyHashKey() {
+        if (!preferences.getBoolean(PREF_HASH_KEYED, false)) {
+            RidGuardIdHasher.getInstance().setKey(null);
+            return;
+        }
+        String stored = preferences.getString(PREF_HASH_KEY, null);
+        byte[] key = stored != null && stored.length() == HASH_KEY_BYTES * 2 ? decodeHex(stored) : null;
+        if (key == null) {
+            key = new byte[HASH_KEY_BYTES];
+            new SecureRandom().nextBytes(key);
+            preferences.edit().putString(PREF_HASH_KEY, encodeHex(key)).apply();
+        }
+        RidGuardIdHasher.getInstance().setKey(key);
+    }
+
+    private static String encodeHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            builder.append(Character.forDigit((value >> 4) & 0xf, 16))
+                    .append(Character.forDigit(value & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] decodeHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
     }
 
     public long getSilenceUntil() {
-        return preferences.getLong(PREF_SILENCE_UNTIL, 0L);
+        return snapshot.silenceUntil;
     }
 
     public void setSilenceForMinutes(int minutes) {
@@ -83,8 +275,12 @@ public class RidGuardSettings {
         preferences.edit().putLong(PREF_SILENCE_UNTIL, until).apply();
     }
 
+    /** The manually ignored IDs, lower case. */
     public Set<String> getManualIgnoreIds() {
-        String raw = preferences.getString(PREF_IGNORE_IDS, "");
+        return Collections.unmodifiableSet(snapshot.manualIgnoreIds);
+    }
+
+    private static Set<String> parseIds(String raw) {
         if (TextUtils.isEmpty(raw)) {
             return Collections.emptySet();
         }
@@ -93,22 +289,14 @@ public class RidGuardSettings {
         for (String entry : entries) {
             String trimmed = entry.trim();
             if (!trimmed.isEmpty()) {
-                result.add(trimmed);
+                result.add(trimmed.toLowerCase(Locale.ROOT));
             }
         }
         return result;
     }
 
     public boolean isManuallyIgnored(String id) {
-        if (id == null) {
-            return false;
-        }
-        for (String ignored : getManualIgnoreIds()) {
-            if (ignored.equalsIgnoreCase(id)) {
-                return true;
-            }
-        }
-        return false;
+        return snapshot.isManuallyIgnored(id);
     }
 
     public void ignoreTemporarily(String id, int minutes) {
@@ -121,12 +309,21 @@ public class RidGuardSettings {
     }
 
     public boolean isTemporarilyIgnored(String id) {
-        if (id == null) {
-            return false;
+        return snapshot.isTemporarilyIgnored(id, System.currentTimeMillis());
+    }
+
+    /**
+     * Temporary ignores are stored by hashed ID and the plain IDs are not kept, so they cannot be
+     * re-keyed when the hashing changes; drop them instead of leaving them orphaned.
+     */
+    private void clearTemporaryIgnores() {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(PREF_IGNORE_UNTIL_PREFIX)) {
+                editor.remove(key);
+            }
         }
-        String key = PREF_IGNORE_UNTIL_PREFIX + hashId(id);
-        long until = preferences.getLong(key, 0L);
-        return until > System.currentTimeMillis();
+        editor.apply();
     }
 
     private int getIntPref(String key, int defaultValue) {
@@ -140,20 +337,8 @@ public class RidGuardSettings {
         return preferences.getInt(key, defaultValue);
     }
 
+    /** @see RidGuardIdHasher */
     public static String hashId(String id) {
-        if (id == null) {
-            return "";
-        }
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashed = digest.digest(id.getBytes(StandardCharsets.UTF_8));
-            StringBuilder builder = new StringBuilder();
-            for (byte value : Arrays.copyOf(hashed, 8)) {
-                builder.append(String.format(Locale.US, "%02x", value));
-            }
-            return builder.toString();
-        } catch (NoSuchAlgorithmException e) {
-            return Integer.toHexString(id.hashCode());
-        }
+        return RidGuardIdHasher.getInstance().hash(id);
     }
 }
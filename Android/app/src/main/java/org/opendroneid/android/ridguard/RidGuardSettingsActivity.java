@@ -6,12 +6,23 @@
  */
 package org.opendroneid.android.ridguard;
 
+import android.content.Context;
+import android.location.Location;
 import android.os.Bundle;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 
 import org.opendroneid.android.R;
+import org.osmdroid.tileprovider.cachemanager.CacheManager;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 public class RidGuardSettingsActivity extends AppCompatActivity {
     @Override
@@ -30,6 +41,93 @@ public class RidGuardSettingsActivity extends AppCompatActivity {
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             setPreferencesFromResource(R.xml.rid_guard_settings, rootKey);
+            Preference archives = findPreference("ridguard_offline_archives");
+            if (archives != null) {
+                archives.setSummary(getString(R.string.rid_guard_offline_archives_summary,
+                        RidGuardOfflineMaps.getArchiveDirectory(requireContext()).getAbsolutePath()));
+            }
+            Preference prefetch = findPreference("ridguard_prefetch_tiles");
+            if (prefetch != null) {
+                prefetch.setOnPreferenceClickListener(preference -> {
+                    prefetchTiles();
+                    return true;
+                });
+            }
+            Preference exportAll = findPreference("ridguard_export_encounters");
+            if (exportAll != null) {
+                exportAll.setOnPreferenceClickListener(preference -> {
+                    exportEncounters(false);
+                    return true;
+                });
+            }
+            Preference exportClose = findPreference("ridguard_export_close_encounters");
+            if (exportClose != null) {
+                exportClose.setOnPreferenceClickListener(preference -> {
+                    exportEncounters(true);
+                    return true;
+                });
+            }
+        }
+
+        private void exportEncounters(boolean closeOnly) {
+            Context context = requireContext().getApplicationContext();
+            File dir = context.getExternalFilesDir(null);
+            if (dir == null) {
+                dir = context.getFilesDir();
+            }
+            String date = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.US).format(new Date());
+            File file = new File(dir, (closeOnly ? "ridguard_close_encounters_" : "ridguard_all_encounters_")
+                    + date + ".csv");
+            RidGuardRepository.getInstance(context).getEncounterStore().export(file, closeOnly, (exported, count) ->
+                    Toast.makeText(context, exported != null
+                            ? context.getString(R.string.rid_guard_export_done, count, exported.getAbsolutePath())
+                            : context.getString(R.string.rid_guard_export_failed), Toast.LENGTH_LONG).show());
+        }
+
+        private void prefetchTiles() {
+            Context context = requireContext().getApplicationContext();
+            RidGuardRepository repository = RidGuardRepository.getInstance(context);
+            Location location = repository.getReceiverLocation();
+            if (location == null) {
+                Toast.makeText(context, R.string.rid_guard_prefetch_no_location, Toast.LENGTH_LONG).show();
+                return;
+            }
+            RidGuardSettings settings = repository.getSettings();
+            ITileSource source = RidGuardOfflineMaps.getTileSource(settings.getTileUrl());
+            if (!RidGuardOfflineMaps.isPrefetchAllowed(source)) {
+                Toast.makeText(context, R.string.rid_guard_prefetch_not_allowed, Toast.LENGTH_LONG).show();
+                return;
+            }
+            int tiles = RidGuardOfflineMaps.countPrefetchTiles(location.getLatitude(), location.getLongitude(),
+                    settings.getPrefetchRadiusKm(), settings.getPrefetchMaxZoom());
+            boolean started = RidGuardOfflineMaps.prefetch(context, source, location.getLatitude(), location.getLongitude(),
+                    settings.getPrefetchRadiusKm(), settings.getPrefetchMaxZoom(), new CacheManager.CacheManagerCallback() {
+                        @Override
+                        public void onTaskComplete() {
+                            Toast.makeText(context, R.string.rid_guard_prefetch_done, Toast.LENGTH_SHORT).show();
+                        }
+
+                        @Override
+                        public void onTaskFailed(int errors) {
+                            Toast.makeText(context, context.getString(R.string.rid_guard_prefetch_failed, errors),
+                                    Toast.LENGTH_LONG).show();
+                        }
+
+                        @Override
+                        public void updateProgress(int progress, int currentZoomLevel, int zoomMin, int zoomMax) {
+                        }
+
+                        @Override
+                        public void downloadStarted() {
+                        }
+
+                        @Override
+                        public void setPossibleTilesInArea(int total) {
+                        }
+                    });
+            Toast.makeText(context, started
+                    ? context.getString(R.string.rid_guard_prefetch_started, tiles)
+                    : context.getString(R.string.rid_guard_prefetch_too_large, tiles), Toast.LENGTH_LONG).show();
         }
     }
 }